@@ -1,36 +1,98 @@
-import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
 
 public class Analyzer implements AutoCloseable {
-	private final BufferedReader    bufferedReader;
+	private final File              inputFile;
+	private final FileReader        fileReader;
 	private final BufferedWriter    bufferedWriterVM;
 	private final Tokenizer         tokenizer;
 	private final CompilationEngine compilationEngine;
+	private final CodeGenerator     codeGenerator;
 	private final VMWriter          vmWriter;
+	private       List<Pass>        passes = Pass.parse(Pass.DEFAULT_PASSES);
+	// where the tree is dumped after the passes, or null (--dump-ir)
+	private       File              irOutputFile;
+	private       long              compileNanos;
 
 	public Analyzer(File inputFile, File outputFile) throws IOException {
-		this.bufferedReader = new BufferedReader(new FileReader(inputFile));
-		this.bufferedWriterVM = new BufferedWriter(new FileWriter(outputFile));
-		this.tokenizer = new Tokenizer(bufferedReader);
-		this.vmWriter = new VMWriter(bufferedWriterVM);
-		this.compilationEngine = new CompilationEngine(vmWriter);
+		this(inputFile, outputFile, null);
+	}
+
+	/*
+	compile to .vm text in outputFile, to Hack assembly through codeWriter, or both
+	either of them may be null
+	*/
+	public Analyzer(File inputFile, File outputFile, CodeWriter codeWriter) throws IOException {
+		this.inputFile = inputFile;
+		this.fileReader = new FileReader(inputFile);
+		this.bufferedWriterVM = outputFile != null ? new BufferedWriter(new FileWriter(outputFile)) : null;
+		this.tokenizer = new Tokenizer(fileReader);
+		this.vmWriter = new VMWriter(bufferedWriterVM, codeWriter);
+		this.compilationEngine = new CompilationEngine(tokenizer);
+		this.codeGenerator = new CodeGenerator(vmWriter);
+	}
+
+	public void setPasses(List<Pass> passes) {
+		this.passes = passes;
+	}
+
+	public void setClassIndex(ClassIndex classIndex) {
+		compilationEngine.setClassIndex(classIndex);
+	}
+
+	public List<String> warnings() {
+		return compilationEngine.warnings();
+	}
+
+	public void setIrOutputFile(File irOutputFile) {
+		this.irOutputFile = irOutputFile;
 	}
 
 	public void analyze() throws IOException {
-		tokenizer.tokenize();
-		compilationEngine.setTokenizer(tokenizer);
-		compilationEngine.compile();
+		// tokens are scanned on demand while the class is being compiled
+		long start = System.nanoTime();
+		ClassDeclaration classDeclaration = compilationEngine.compile();
+		for (Pass pass : passes) {
+			classDeclaration = pass.run(classDeclaration);
+		}
+		if (irOutputFile != null) {
+			Files.writeString(irOutputFile.toPath(), IrPrinter.print(classDeclaration));
+		}
+		codeGenerator.generate(classDeclaration);
 		close();
+		compileNanos = System.nanoTime() - start;
+	}
+
+	public String statistics() {
+		double throughput = compileNanos == 0 ? 0 : (tokenizer.charsScanned() / 1e6) / (compileNanos / 1e9);
+		StringBuilder statistics = new StringBuilder(String.format(
+				"%s: %d chars, %d tokens, compiled at %.1f MB/s, %d Math.multiply calls saved",
+				inputFile.getName(), tokenizer.charsScanned(), tokenizer.tokenCount(), throughput,
+				codeGenerator.reducedMultiplications()
+		));
+		for (Pass pass : passes) {
+			if (pass.statistics() != null) {
+				statistics.append(", ").append(pass.statistics());
+			}
+		}
+		if (codeGenerator.stringPool()) {
+			statistics.append(String.format(", %d strings pooled", codeGenerator.pooledStrings()));
+		}
+		return statistics.toString();
+	}
+
+	public CodeGenerator codeGenerator() {
+		return codeGenerator;
 	}
 
 	@Override
 	public void close() throws IOException {
-		bufferedReader.close();
-		bufferedWriterVM.close();
+		fileReader.close();
 		vmWriter.close();
 	}
 }
@@ -0,0 +1,138 @@
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+micro benchmark for the compiler front end, run with
+java -cp target/classes Benchmark (tokenize | parse | translate | pipeline) <directory>...
+tokenize only scans the sources, parse compiles them to a discarded VM output
+translate compiles them to VM text and translates that text to discarded Hack assembly,
+pipeline compiles them straight to discarded Hack assembly without the VM text
+every directory is a corpus of .jack files that is read into memory once,
+then compiled repeatedly after a warm-up so the numbers reflect jitted code
+*/
+public class Benchmark {
+
+	private static final int WARMUP_ITERATIONS   = 5000;
+	private static final int MEASURED_ITERATIONS = 5000;
+
+	public static void main(String[] args) throws IOException {
+		if (args.length < 2 || !List.of("tokenize", "parse", "translate", "pipeline").contains(args[0])) {
+			System.out.println("usage: Benchmark (tokenize | parse | translate | pipeline) <directory>...");
+			System.exit(1);
+		}
+		String mode = args[0];
+
+		for (int i = 1; i < args.length; i++) {
+			File corpusDirectory = new File(args[i]);
+			List<String> sources = readCorpus(corpusDirectory);
+			long chars = sources.stream().mapToLong(String::length).sum();
+
+			for (int iteration = 0; iteration < WARMUP_ITERATIONS; iteration++) {
+				run(mode, sources);
+			}
+			long start = System.nanoTime();
+			long tokens = 0;
+			for (int iteration = 0; iteration < MEASURED_ITERATIONS; iteration++) {
+				tokens = run(mode, sources);
+			}
+			long nanos = System.nanoTime() - start;
+
+			double nanosPerChar = (double) nanos / (chars * MEASURED_ITERATIONS);
+			System.out.printf("%s: %d chars, %d tokens, %.2f ns/char, %.1f MB/s%n",
+							  corpusDirectory.getName(), chars, tokens, nanosPerChar, 1e3 / nanosPerChar
+			);
+		}
+	}
+
+	private static List<String> readCorpus(File corpusDirectory) throws IOException {
+		List<String> sources = new ArrayList<>();
+		for (File file : corpusDirectory.listFiles()) {
+			if (file.getName().endsWith(".jack")) {
+				sources.add(Files.readString(file.toPath()));
+			}
+		}
+		return sources;
+	}
+
+	private static long run(String mode, List<String> sources) throws IOException {
+		return switch (mode) {
+			case "tokenize" -> tokenize(sources);
+			case "parse" -> parse(sources);
+			case "translate" -> translate(sources);
+			default -> pipeline(sources);
+		};
+	}
+
+	// scan every source to the end, returning the number of tokens seen
+	private static long tokenize(List<String> sources) {
+		long tokens = 0;
+		for (String source : sources) {
+			Tokenizer tokenizer = new Tokenizer(new StringReader(source));
+			while (tokenizer.hasMoreTokens()) {
+				tokenizer.advance();
+				tokenizer.tokenType();
+				tokens++;
+			}
+		}
+		return tokens;
+	}
+
+	// compile every source into a VM writer that discards its output, returning the number of tokens seen
+	private static long parse(List<String> sources) throws IOException {
+		long tokens = 0;
+		for (String source : sources) {
+			Tokenizer tokenizer = new Tokenizer(new StringReader(source));
+			compile(tokenizer, new VMWriter(new BufferedWriter(Writer.nullWriter())));
+			tokens += tokenizer.tokenCount();
+		}
+		return tokens;
+	}
+
+	// compile every source to VM text, then parse that text again and translate it, returning the number of tokens seen
+	private static long translate(List<String> sources) throws IOException {
+		long tokens = 0;
+		for (String source : sources) {
+			Tokenizer tokenizer = new Tokenizer(new StringReader(source));
+			StringWriter vmText = new StringWriter();
+			VMWriter vmWriter = new VMWriter(new BufferedWriter(vmText));
+			compile(tokenizer, vmWriter);
+			vmWriter.close();
+			try (CodeWriter codeWriter = new CodeWriter(Writer.nullWriter());
+				 Parser parser = new Parser(new StringReader(vmText.toString()))) {
+				while (parser.hasMoreCommands()) {
+					parser.advance();
+					codeWriter.write(parser.command());
+				}
+			}
+			tokens += tokenizer.tokenCount();
+		}
+		return tokens;
+	}
+
+	// compile every source straight into a code writer that discards its output, returning the number of tokens seen
+	private static long pipeline(List<String> sources) throws IOException {
+		long tokens = 0;
+		for (String source : sources) {
+			Tokenizer tokenizer = new Tokenizer(new StringReader(source));
+			compile(tokenizer, new VMWriter(null, new CodeWriter(Writer.nullWriter())));
+			tokens += tokenizer.tokenCount();
+		}
+		return tokens;
+	}
+
+	// parse a class, run the default passes over it and write its VM code
+	private static void compile(Tokenizer tokenizer, VMWriter vmWriter) {
+		ClassDeclaration classDeclaration = new CompilationEngine(tokenizer).compile();
+		for (Pass pass : Pass.parse(Pass.DEFAULT_PASSES)) {
+			classDeclaration = pass.run(classDeclaration);
+		}
+		new CodeGenerator(vmWriter).generate(classDeclaration);
+	}
+}
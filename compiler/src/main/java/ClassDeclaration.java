@@ -0,0 +1,10 @@
+import java.util.List;
+
+// a Jack class after parsing, the unit that passes run over and the CodeGenerator lowers
+public record ClassDeclaration(String name, int staticCount, int fieldCount,
+							   List<SubroutineDeclaration> subroutines) {
+
+	public ClassDeclaration withSubroutines(List<SubroutineDeclaration> subroutines) {
+		return new ClassDeclaration(name, staticCount, fieldCount, subroutines);
+	}
+}
@@ -0,0 +1,311 @@
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import enums.Keyword;
+import enums.Symbol;
+
+/*
+the signatures of every subroutine of the program: the classes being compiled, the Jack OS,
+and the classes of .vm files without a Jack source, whose subroutines are unknown
+it is built before any class is compiled, so that the CompilationEngine can check calls
+against it and the inline pass can inline calls to any class
+the signatures of a Jack class are cached in compiled_files/.class-index with a hash of its
+source, and only classes whose source changed are parsed again
+entries are keyed by the canonical path of the source, so that the classes of several
+programs, such as two Main.jack, share the cache without evicting each other
+*/
+public class ClassIndex {
+
+	/*
+	what is known about a subroutine before its class is compiled
+	inlineValue is the value a call can be replaced with (see Inliner), inlineField the field
+	a call sets, both null if the subroutine can not be inlined
+	*/
+	public record Signature(String name, Keyword kind, String returnType, int parameterCount,
+							Expression inlineValue, Expression.Variable inlineField) {
+
+		// the number of arguments of a call, including the object of a method
+		public int argumentCount() {
+			return parameterCount + (kind == Keyword.METHOD ? 1 : 0);
+		}
+	}
+
+	// the Jack OS API, in the format of the cache
+	private static final String[] OS_SIGNATURES = {
+			"function void Math.init 0", "function int Math.abs 1", "function int Math.multiply 2",
+			"function int Math.divide 2", "function int Math.min 2", "function int Math.max 2",
+			"function int Math.sqrt 1",
+			"constructor String String.new 1", "method void String.dispose 0", "method int String.length 0",
+			"method char String.charAt 1", "method void String.setCharAt 2", "method String String.appendChar 1",
+			"method void String.eraseLastChar 0", "method int String.intValue 0", "method void String.setInt 1",
+			"function char String.backSpace 0", "function char String.doubleQuote 0",
+			"function char String.newLine 0",
+			"function Array Array.new 1", "method void Array.dispose 0",
+			"function void Output.init 0", "function void Output.moveCursor 2", "function void Output.printChar 1",
+			"function void Output.printString 1", "function void Output.printInt 1", "function void Output.println 0",
+			"function void Output.backSpace 0",
+			"function void Screen.init 0", "function void Screen.clearScreen 0", "function void Screen.setColor 1",
+			"function void Screen.drawPixel 2", "function void Screen.drawLine 4",
+			"function void Screen.drawRectangle 4", "function void Screen.drawCircle 3",
+			"function void Keyboard.init 0", "function char Keyboard.keyPressed 0", "function char Keyboard.readChar 0",
+			"function String Keyboard.readLine 1", "function int Keyboard.readInt 1",
+			"function void Memory.init 0", "function int Memory.peek 1", "function void Memory.poke 2",
+			"function Array Memory.alloc 1", "function void Memory.deAlloc 1",
+			"function void Sys.init 0", "function void Sys.halt 0", "function void Sys.error 1",
+			"function void Sys.wait 1",
+	};
+
+	private final Map<String, Signature> signatures    = new TreeMap<>();
+	// classes whose signatures are known
+	private final Set<String>            classes       = new TreeSet<>();
+	// classes that exist, but whose signatures are unknown
+	private final Set<String>            opaqueClasses = new TreeSet<>();
+	private       int                    hits;
+	private       int                    misses;
+
+	private ClassIndex() {
+	}
+
+	/*
+	index the Jack OS, the classes of the jack files, running the passes over them first so
+	that inlining sees folded bodies, and the classes of the vm files
+	a class of the program replaces the OS class of the same name
+	*/
+	public static ClassIndex build(List<File> jackFiles, List<File> vmFiles, List<Pass> passes, File cacheFile,
+								   String fingerprint) throws IOException {
+		ClassIndex index = new ClassIndex();
+		Map<String, List<Signature>> programClasses = new TreeMap<>();
+		Properties cache = new Properties();
+		if (cacheFile.exists()) {
+			try (Reader reader = new FileReader(cacheFile)) {
+				cache.load(reader);
+			}
+		}
+
+		for (File jackFile : jackFiles) {
+			String key = jackFile.getCanonicalPath();
+			String hash = hash(jackFile, fingerprint);
+			String cached = cache.getProperty(key);
+			String entry;
+			if (cached != null && cached.startsWith(hash + ";")) {
+				index.hits++;
+				entry = cached.substring(hash.length() + 1);
+			} else {
+				index.misses++;
+				try {
+					entry = encode(parse(jackFile, passes));
+				} catch (Error e) {
+					throw new Error(String.format("%s: %s", jackFile.getName(), e.getMessage()));
+				}
+				cache.setProperty(key, hash + ";" + entry);
+			}
+			String[] fields = entry.split(";", -1);
+			List<Signature> classSignatures = new ArrayList<>();
+			for (int i = 1; i < fields.length; i++) {
+				classSignatures.add(decode(fields[i]));
+			}
+			programClasses.put(fields[0], classSignatures);
+		}
+		// forget the files that are gone, the entries of other programs are kept
+		cache.keySet().removeIf(path -> !new File((String) path).exists());
+		try (Writer writer = new FileWriter(cacheFile)) {
+			cache.store(writer, "class index, jack file path = content hash;class;signatures");
+		}
+
+		for (String osSignature : OS_SIGNATURES) {
+			Signature signature = decode(osSignature);
+			String className = className(signature.name());
+			if (!programClasses.containsKey(className)) {
+				index.add(className, signature);
+			}
+		}
+		for (Map.Entry<String, List<Signature>> programClass : programClasses.entrySet()) {
+			index.classes.add(programClass.getKey());
+			for (Signature signature : programClass.getValue()) {
+				index.add(programClass.getKey(), signature);
+			}
+		}
+		for (File vmFile : vmFiles) {
+			String className = vmFile.getName().replace(".vm", "");
+			if (!index.classes.contains(className)) {
+				index.opaqueClasses.add(className);
+			}
+		}
+		return index;
+	}
+
+	private void add(String className, Signature signature) {
+		classes.add(className);
+		signatures.put(signature.name(), signature);
+	}
+
+	// the signature of a VM function name Class.subroutine, or null if it is not known
+	public Signature signature(String name) {
+		return signatures.get(name);
+	}
+
+	// true if the signatures of the class are known
+	public boolean hasSignatures(String className) {
+		return classes.contains(className);
+	}
+
+	// true if the class is part of the program or the OS
+	public boolean exists(String className) {
+		return classes.contains(className) || opaqueClasses.contains(className);
+	}
+
+	/*
+	a SHA-256 hash of every signature: the code of a call depends on the signature of the subroutine
+	it calls, so a class needs to be compiled again whenever this changes
+	*/
+	public String digest() {
+		StringBuilder text = new StringBuilder();
+		for (Signature signature : signatures.values()) {
+			text.append(encode(signature)).append(';');
+		}
+		text.append(opaqueClasses);
+		return sha256(text.toString().getBytes(StandardCharsets.UTF_8));
+	}
+
+	public String statistics() {
+		return String.format("class index: %d classes, %d signatures, %d cached, %d parsed", classes.size(),
+							 signatures.size(), hits, misses);
+	}
+
+	public static String className(String name) {
+		return name.substring(0, name.indexOf('.'));
+	}
+
+	private static ClassDeclaration parse(File jackFile, List<Pass> passes) throws IOException {
+		try (FileReader reader = new FileReader(jackFile)) {
+			ClassDeclaration classDeclaration = new CompilationEngine(new Tokenizer(reader)).compile();
+			for (Pass pass : passes) {
+				classDeclaration = pass.run(classDeclaration);
+			}
+			return classDeclaration;
+		}
+	}
+
+	/*
+	the cache format of a class: its name and then one signature per subroutine,
+	separated by ;
+	a signature is kind returnType Class.name parameterCount, followed by return e or set v
+	for a subroutine that can be inlined; e and v are in prefix notation, see encode
+	*/
+	private static String encode(ClassDeclaration classDeclaration) {
+		StringBuilder text = new StringBuilder(classDeclaration.name());
+		for (SubroutineDeclaration subroutine : classDeclaration.subroutines()) {
+			Signature signature = new Signature(subroutine.name(), subroutine.kind(), subroutine.returnType(),
+												subroutine.parameterCount(), Inliner.inlineValue(subroutine),
+												Inliner.inlineField(subroutine));
+			text.append(';').append(encode(signature));
+		}
+		return text.toString();
+	}
+
+	private static String encode(Signature signature) {
+		StringBuilder text = new StringBuilder(String.format("%s %s %s %d", signature.kind().lexeme(),
+															 signature.returnType(), signature.name(),
+															 signature.parameterCount()));
+		if (signature.inlineValue() != null) {
+			text.append(" return");
+			encode(signature.inlineValue(), text);
+		} else if (signature.inlineField() != null) {
+			text.append(" set");
+			encode(signature.inlineField(), text);
+		}
+		return text.toString();
+	}
+
+	// #value for a constant, $segment:index:name for a variable, then unary and binary operators
+	private static void encode(Expression expression, StringBuilder text) {
+		text.append(' ');
+		if (expression instanceof Expression.Constant constant) {
+			text.append('#').append(constant.value());
+		} else if (expression instanceof Expression.Variable variable) {
+			text.append('$').append(variable.segment()).append(':').append(variable.index()).append(':')
+				.append(variable.name());
+		} else if (expression instanceof Expression.Unary unary) {
+			text.append("u:").append(unary.operator().name());
+			encode(unary.operand(), text);
+		} else if (expression instanceof Expression.Binary binary) {
+			text.append("b:").append(binary.operator().name());
+			encode(binary.left(), text);
+			encode(binary.right(), text);
+		} else {
+			throw new Error("can not index " + expression);
+		}
+	}
+
+	private static Signature decode(String text) {
+		String[] words = text.split(" ");
+		Keyword kind = switch (words[0]) {
+			case "constructor" -> Keyword.CONSTRUCTOR;
+			case "function" -> Keyword.FUNCTION;
+			case "method" -> Keyword.METHOD;
+			default -> throw new Error("invalid class index entry " + text);
+		};
+		Expression inlineValue = null;
+		Expression.Variable inlineField = null;
+		if (words.length > 4) {
+			Iterator<String> rest = List.of(words).subList(5, words.length).iterator();
+			if (words[4].equals("return")) {
+				inlineValue = decode(rest);
+			} else {
+				inlineField = (Expression.Variable) decode(rest);
+			}
+		}
+		return new Signature(words[2], kind, words[1], Integer.parseInt(words[3]), inlineValue, inlineField);
+	}
+
+	private static Expression decode(Iterator<String> words) {
+		String word = words.next();
+		if (word.startsWith("#")) {
+			return new Expression.Constant(Integer.parseInt(word.substring(1)));
+		} else if (word.startsWith("$")) {
+			String[] parts = word.substring(1).split(":");
+			return new Expression.Variable(parts[2], parts[0], Integer.parseInt(parts[1]));
+		} else if (word.startsWith("u:")) {
+			return new Expression.Unary(Symbol.valueOf(word.substring(2)), decode(words));
+		} else {
+			Symbol operator = Symbol.valueOf(word.substring(2));
+			Expression left = decode(words);
+			return new Expression.Binary(operator, left, decode(words));
+		}
+	}
+
+	private static String hash(File inputFile, String fingerprint) throws IOException {
+		return sha256(fingerprint.getBytes(StandardCharsets.UTF_8), new byte[] {0},
+					  Files.readAllBytes(inputFile.toPath()));
+	}
+
+	// the SHA-256 of the parts one after the other, as CompileCache hashes its entries
+	private static String sha256(byte[]... parts) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			for (byte[] part : parts) {
+				digest.update(part);
+			}
+			return String.format("%064x", new BigInteger(1, digest.digest()));
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+}
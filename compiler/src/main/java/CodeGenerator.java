@@ -0,0 +1,468 @@
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+import enums.Keyword;
+import enums.Symbol;
+
+/*
+lowers the tree of a class to VM commands, written through a VMWriter
+*/
+public class CodeGenerator {
+
+	// doublings plus additions up to which a multiplication by a constant is written inline
+	private static final int MAX_MULTIPLICATION_STEPS = 10;
+
+	private final VMWriter         vmWriter;
+	private       ClassDeclaration currentClass;
+	// numbers the if and while labels of the current subroutine; VM labels are scoped by
+	// function, so the numbers only need to be unique within one subroutine
+	private       int              labelCounter;
+	// multiplications by a constant written without a call to Math.multiply
+	private       int              reducedMultiplications;
+
+	/*
+	build every distinct string constant of the class only once (--string-pool)
+	a pooled string is kept in a static slot after the statics of the class, its slot is the
+	number of statics plus its index in the pool
+	*/
+	private       boolean                  stringPool    = false;
+	private final HashMap<String, Integer> pooledStrings = new LinkedHashMap<>();
+
+	public CodeGenerator(VMWriter vmWriter) {
+		this.vmWriter = vmWriter;
+	}
+
+	public void setStringPool(boolean stringPool) {
+		this.stringPool = stringPool;
+	}
+
+	public boolean stringPool() {
+		return stringPool;
+	}
+
+	public int pooledStrings() {
+		return pooledStrings.size();
+	}
+
+	public int reducedMultiplications() {
+		return reducedMultiplications;
+	}
+
+	public void generate(ClassDeclaration classDeclaration) {
+		currentClass = classDeclaration;
+		for (SubroutineDeclaration subroutine : classDeclaration.subroutines()) {
+			writeSubroutine(subroutine);
+		}
+	}
+
+	private void writeSubroutine(SubroutineDeclaration subroutine) {
+		labelCounter = 0;
+		vmWriter.writeFunction(subroutine.name(), subroutine.localCount());
+
+		/*
+		 * Within a VM function corresponding to a Jack method or a Jack constructor,
+		 * access to the fields of the this object is obtained by first pointing the
+		 * virtual this segment to the current object (using pointer 0 ) and then
+		 * accessing individual fields via this index references, where index is an
+		 * non-negative integer.
+		 */
+		if (subroutine.kind() == Keyword.METHOD) {
+			// if it is a method, get the "this" from the first argument and set THIS
+			// accordingly
+			vmWriter.writePush("argument", 0);
+			vmWriter.writePop("pointer", 0);
+		} else if (subroutine.kind() == Keyword.CONSTRUCTOR) {
+			// if it is a constructor, allocate memory depending on the number of
+			// class-scope variables and
+			// set the root of THIS to that memory address
+			vmWriter.writePush("constant", currentClass.staticCount() + currentClass.fieldCount());
+			vmWriter.writeCall("Memory.alloc", 1);
+			vmWriter.writePop("pointer", 0);
+		}
+		writeStatements(subroutine.body());
+	}
+
+	private void writeStatements(List<Statement> statements) {
+		for (Statement statement : statements) {
+			writeStatement(statement);
+		}
+	}
+
+	private void writeStatement(Statement statement) {
+		if (statement instanceof Statement.Let let) {
+			writeLet(let);
+		} else if (statement instanceof Statement.If branch) {
+			writeIf(branch);
+		} else if (statement instanceof Statement.While loop) {
+			writeWhile(loop);
+		} else if (statement instanceof Statement.Do call) {
+			/*
+			 * When translating a do sub statement where sub is a void method or function,
+			 * the caller of the corresponding VM function must pop (and ignore) the
+			 * returned value (which is always the constant 0)
+			 */
+			writeExpression(call.expression());
+			vmWriter.writePop("temp", 0);
+		} else if (statement instanceof Statement.Return ret) {
+			/*
+			 * VM functions corresponding to void Jack methods and functions must return the
+			 * constant 0 as their return value.
+			 */
+			if (ret.value() != null) {
+				writeExpression(ret.value());
+			} else {
+				vmWriter.writePush("constant", 0);
+			}
+			vmWriter.writeReturn();
+		}
+	}
+
+	private void writeLet(Statement.Let let) {
+		Expression.Variable target = let.target();
+		if (let.index() == null) {
+			writeExpression(let.value());
+			// pop the result of the expression into the variable
+			vmWriter.writePop(target.segment(), target.index());
+			return;
+		}
+
+		// the address is computed first, then the value, as the original order of evaluation
+		int offset = writeElementAddress(target, let.index());
+		if (!readsArrays(let.value())) {
+			// THAT can be pointed at the element before the value is computed, as nothing in
+			// the value moves it: calls restore THAT when they return
+			vmWriter.writePop("pointer", 1);
+			writeExpression(let.value());
+			vmWriter.writePop("that", offset);
+			return;
+		}
+		writeExpression(let.value());
+		// save the value of the expression in a temp variable
+		vmWriter.writePop("temp", 0);
+		// point the THAT memory segment to the complete index address calculated before
+		// the "="
+		vmWriter.writePop("pointer", 1);
+		// push the expression value back on the stack
+		vmWriter.writePush("temp", 0);
+		// save it in THAT
+		vmWriter.writePop("that", offset);
+	}
+
+	/*
+	push the address that THAT is pointed at to reach array[index], returning the offset of
+	the element from there: a constant index is left to that k instead of being added
+	*/
+	private int writeElementAddress(Expression.Variable array, Expression index) {
+		if (index instanceof Expression.Constant constant && constant.value() >= 0) {
+			writeExpression(array);
+			return constant.value();
+		}
+		// array index calculated first
+		writeExpression(index);
+		// push the variable that contains the array memory address
+		writeExpression(array);
+		// add it to the calculated index to get the complete address of the index
+		vmWriter.writeArithmetic("add");
+		return 0;
+	}
+
+	// true if computing the expression reads an array element, which points THAT elsewhere
+	private static boolean readsArrays(Expression expression) {
+		if (expression instanceof Expression.ArrayElement) {
+			return true;
+		} else if (expression instanceof Expression.Call call) {
+			for (Expression argument : call.arguments()) {
+				if (readsArrays(argument)) {
+					return true;
+				}
+			}
+		} else if (expression instanceof Expression.Unary unary) {
+			return readsArrays(unary.operand());
+		} else if (expression instanceof Expression.Binary binary) {
+			return readsArrays(binary.left()) || readsArrays(binary.right());
+		}
+		return false;
+	}
+
+	private void writeIf(Statement.If branch) {
+		int labelNumber = labelCounter++;
+		boolean thenCompletes = Statement.canCompleteNormally(branch.thenStatements());
+		boolean elseCompletes = Statement.canCompleteNormally(branch.elseStatements());
+
+		if (branch.condition() instanceof Expression.Unary unary && unary.operator() == Symbol.TILDE) {
+			/*
+			 * if (~cond) jumps to the else branch on cond itself:
+			 * VM code for computing cond if-goto L1 VM code for executing s1 goto L2
+			 * label L1 VM code for executing s2 label L2 ...
+			 */
+			writeExpression(unary.operand());
+			vmWriter.writeIf(String.format("IF1_%d", labelNumber));
+			writeStatements(branch.thenStatements());
+			if (thenCompletes) {
+				vmWriter.writeGoto(String.format("IF2_%d", labelNumber));
+			}
+			vmWriter.writeLabel(String.format("IF1_%d", labelNumber));
+			writeStatements(branch.elseStatements());
+		} else if (!Expression.isBoolean(branch.condition())) {
+			/*
+			 * a condition that may be neither 0 nor -1 is only true if it is -1:
+			 * VM code for computing cond not if-goto L1 VM code for executing s1 goto L2
+			 * label L1 VM code for executing s2 label L2 ...
+			 */
+			writeExpression(branch.condition());
+			vmWriter.writeArithmetic("not");
+			vmWriter.writeIf(String.format("IF1_%d", labelNumber));
+			writeStatements(branch.thenStatements());
+			if (thenCompletes) {
+				vmWriter.writeGoto(String.format("IF2_%d", labelNumber));
+			}
+			vmWriter.writeLabel(String.format("IF1_%d", labelNumber));
+			writeStatements(branch.elseStatements());
+		} else {
+			/*
+			 * jump to the then branch on a boolean condition, so that no not is needed, which
+			 * puts the else branch first:
+			 * VM code for computing cond if-goto L1 VM code for executing s2 goto L2
+			 * label L1 VM code for executing s1 label L2 ...
+			 */
+			writeExpression(branch.condition());
+			vmWriter.writeIf(String.format("IF1_%d", labelNumber));
+			writeStatements(branch.elseStatements());
+			if (elseCompletes) {
+				vmWriter.writeGoto(String.format("IF2_%d", labelNumber));
+			}
+			vmWriter.writeLabel(String.format("IF1_%d", labelNumber));
+			writeStatements(branch.thenStatements());
+		}
+		// nothing jumps to the end if neither branch gets there
+		if (thenCompletes || elseCompletes) {
+			vmWriter.writeLabel(String.format("IF2_%d", labelNumber));
+		}
+	}
+
+	private void writeWhile(Statement.While loop) {
+		int labelNumber = labelCounter++;
+
+		if (loop.condition() instanceof Expression.Constant constant && Statement.isTrue(constant)) {
+			// while (true) loops without testing and never exits
+			vmWriter.writeLabel(String.format("WHILE1_%d", labelNumber));
+			writeStatements(loop.body());
+			if (Statement.canCompleteNormally(loop.body())) {
+				vmWriter.writeGoto(String.format("WHILE1_%d", labelNumber));
+			}
+			return;
+		}
+
+		if (!Expression.isBoolean(loop.condition())) {
+			/*
+			 * a condition that may be neither 0 nor -1 is only true if it is -1, so it is
+			 * tested at the top and exits on ~cond, where while (~cond) exits on cond itself:
+			 * label L1 VM code for computing ~(cond) if-goto L2 VM code for executing s1
+			 * goto L1 label L2 ...
+			 */
+			vmWriter.writeLabel(String.format("WHILE1_%d", labelNumber));
+			if (loop.condition() instanceof Expression.Unary unary && unary.operator() == Symbol.TILDE) {
+				writeExpression(unary.operand());
+			} else {
+				writeExpression(loop.condition());
+				vmWriter.writeArithmetic("not");
+			}
+			vmWriter.writeIf(String.format("WHILE2_%d", labelNumber));
+			writeStatements(loop.body());
+			if (Statement.canCompleteNormally(loop.body())) {
+				vmWriter.writeGoto(String.format("WHILE1_%d", labelNumber));
+			}
+			vmWriter.writeLabel(String.format("WHILE2_%d", labelNumber));
+			return;
+		}
+
+		/*
+		 * rotated loop, a boolean condition is tested at the bottom so that every iteration
+		 * takes a single jump and needs no not:
+		 * goto L2 label L1 VM code for executing s1 label L2 VM code for computing cond
+		 * if-goto L1 ...
+		 */
+		vmWriter.writeGoto(String.format("WHILE2_%d", labelNumber));
+		vmWriter.writeLabel(String.format("WHILE1_%d", labelNumber));
+		writeStatements(loop.body());
+		vmWriter.writeLabel(String.format("WHILE2_%d", labelNumber));
+		writeExpression(loop.condition());
+		vmWriter.writeIf(String.format("WHILE1_%d", labelNumber));
+	}
+
+	// the VM command for a binary operator
+	private static VMCommand binaryOperatorCommand(Symbol symbol) {
+		return switch (symbol) {
+			case PLUS -> VMCommand.arithmetic("add");
+			case MINUS -> VMCommand.arithmetic("sub");
+			case ASTERISK -> VMCommand.call("Math.multiply", 2);
+			case SLASH -> VMCommand.call("Math.divide", 2);
+			case AMPERSAND -> VMCommand.arithmetic("and");
+			case PIPE -> VMCommand.arithmetic("or");
+			case LESS_THAN -> VMCommand.arithmetic("lt");
+			case GREATER_THAN -> VMCommand.arithmetic("gt");
+			case EQUALS -> VMCommand.arithmetic("eq");
+			default -> throw new Error("invalid binary operator " + symbol);
+		};
+	}
+
+	// write the VM code that pushes the value of the expression
+	public void writeExpression(Expression expression) {
+		if (expression instanceof Expression.Constant constant) {
+			writeConstant(constant.value());
+
+		} else if (expression instanceof Expression.StringConstant stringConstant) {
+			if (stringPool) {
+				writePooledString(stringConstant.value());
+			} else {
+				writeString(stringConstant.value());
+			}
+
+		} else if (expression instanceof Expression.This) {
+			vmWriter.writePush("pointer", 0);
+
+		} else if (expression instanceof Expression.Variable variable) {
+			vmWriter.writePush(variable.segment(), variable.index());
+
+		} else if (expression instanceof Expression.ArrayElement arrayElement) {
+			int offset = writeElementAddress(arrayElement.array(), arrayElement.index());
+			// set the THAT memory segment to the index address
+			vmWriter.writePop("pointer", 1);
+			// push the contents of that memory address
+			vmWriter.writePush("that", offset);
+
+		} else if (expression instanceof Expression.Call call) {
+			for (Expression argument : call.arguments()) {
+				writeExpression(argument);
+			}
+			vmWriter.writeCall(call.function(), call.arguments().size());
+
+		} else if (expression instanceof Expression.Unary unary) {
+			writeExpression(unary.operand());
+			vmWriter.writeArithmetic(unary.operator() == Symbol.MINUS ? "neg" : "not");
+
+		} else if (expression instanceof Expression.Binary binary) {
+			if (binary.operator() == Symbol.ASTERISK && writeConstantMultiplication(binary)) {
+				return;
+			}
+			writeExpression(binary.left());
+			if ((binary.operator() == Symbol.PLUS || binary.operator() == Symbol.MINUS)
+				&& binary.right() instanceof Expression.Constant constant
+				&& constant.value() < 0 && constant.value() != -32768) {
+				// x + -c is x - c, and x - -c is x + c
+				vmWriter.writePush("constant", -constant.value());
+				vmWriter.writeArithmetic(binary.operator() == Symbol.PLUS ? "sub" : "add");
+			} else {
+				writeExpression(binary.right());
+				vmWriter.write(binaryOperatorCommand(binary.operator()));
+			}
+		}
+	}
+
+	/*
+	x * c for a constant c, written as doublings and additions instead of a call to Math.multiply,
+	which also returns the low 16 bits of the product
+	going from the highest bit of c down, the partial product is doubled for every bit and x is
+	added for every set bit
+	x is kept in temp 1 unless it is a variable that can simply be pushed again, and the partial
+	product is duplicated through temp 2
+	returns false, without writing anything, if c is too large for this to pay off
+	*/
+	private boolean writeConstantMultiplication(Expression.Binary binary) {
+		Expression operand;
+		int factor;
+		if (binary.right() instanceof Expression.Constant constant) {
+			operand = binary.left();
+			factor = constant.value();
+		} else if (binary.left() instanceof Expression.Constant constant) {
+			operand = binary.right();
+			factor = constant.value();
+		} else {
+			return false;
+		}
+
+		// x * -c is -(x * c), and -32768 is the same factor as 32768 modulo 2^16
+		boolean negate = factor < 0 && factor != -32768;
+		int magnitude = negate ? -factor : factor & 0xFFFF;
+		int bits = 32 - Integer.numberOfLeadingZeros(magnitude);
+		if (magnitude < 2 || (bits - 1) + (Integer.bitCount(magnitude) - 1) > MAX_MULTIPLICATION_STEPS) {
+			return false;
+		}
+
+		Runnable pushOperand;
+		if (operand instanceof Expression.Variable || operand instanceof Expression.This) {
+			pushOperand = () -> writeExpression(operand);
+		} else {
+			writeExpression(operand);
+			vmWriter.writePop("temp", 1);
+			pushOperand = () -> vmWriter.writePush("temp", 1);
+		}
+
+		pushOperand.run();
+		for (int bit = bits - 2; bit >= 0; bit--) {
+			if (bit == bits - 2) {
+				// the partial product is still x itself
+				pushOperand.run();
+			} else {
+				vmWriter.writePop("temp", 2);
+				vmWriter.writePush("temp", 2);
+				vmWriter.writePush("temp", 2);
+			}
+			vmWriter.writeArithmetic("add");
+			if ((magnitude & (1 << bit)) != 0) {
+				pushOperand.run();
+				vmWriter.writeArithmetic("add");
+			}
+		}
+		if (negate) {
+			vmWriter.writeArithmetic("neg");
+		}
+		reducedMultiplications++;
+		return true;
+	}
+
+	private void writeString(String value) {
+		/*
+		 * String constants are created using the OS constructor String.new(length)
+		 * String assignments like x="cc...c" are handled using a series of calls to the
+		 * OS routine String.appendChar(nextChar)
+		 */
+		vmWriter.writePush("constant", value.length());
+		vmWriter.writeCall("String.new", 1);
+		for (int i = 0; i < value.length(); i++) {
+			vmWriter.writePush("constant", (int) value.charAt(i));
+			vmWriter.writeCall("String.appendChar", 2);
+		}
+	}
+
+	/*
+	the static slot of a pooled string is 0 (null) until the string is first built
+	push static k, if-goto L, build the string, pop static k, label L, push static k
+	*/
+	private void writePooledString(String value) {
+		int slot = currentClass.staticCount()
+				   + pooledStrings.computeIfAbsent(value, v -> pooledStrings.size());
+		String label = String.format("STRING_%d", labelCounter++);
+
+		vmWriter.writePush("static", slot);
+		vmWriter.writeIf(label);
+		writeString(value);
+		vmWriter.writePop("static", slot);
+		vmWriter.writeLabel(label);
+		vmWriter.writePush("static", slot);
+	}
+
+	// push constant only takes 0..32767
+	private void writeConstant(int value) {
+		if (value >= 0) {
+			vmWriter.writePush("constant", value);
+		} else if (value == -32768) {
+			vmWriter.writePush("constant", 32767);
+			vmWriter.writeArithmetic("not");
+		} else {
+			vmWriter.writePush("constant", -value);
+			vmWriter.writeArithmetic("neg");
+		}
+	}
+}
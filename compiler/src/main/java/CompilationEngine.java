@@ -1,47 +1,63 @@
-import java.util.HashMap;
-import java.util.LinkedHashMap;
-import java.util.Random;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
 
 import enums.DeclarationOrUse;
 import enums.IdentifierKind;
+import enums.Keyword;
+import enums.Symbol;
 import enums.TokenType;
 
+/*
+parses a class into a tree of declarations, statements and expressions (see ClassDeclaration)
+names are resolved to their VM segment and index while parsing, no VM code is written here
+*/
 public class CompilationEngine {
 
-	private       Tokenizer   tokenizer;
-	private final VMWriter    vmWriter;
+	private final Tokenizer   tokenizer;
 	private final SymbolTable symbolTable;
 
-	private final HashMap<String, Subroutine> subroutines = new LinkedHashMap<>();
-	private final Random                      random      = new Random();
-
 	private String         currentClassName;
-	private String         currentSubroutineDeclarationKind;
+	// lexeme id of the class name
+	private int            currentClassId;
+	private Keyword        currentSubroutineDeclarationKind;
 	private IdentifierKind currentIdentifierKind;
-	private String         currentIdentifierType;
+	// lexeme id of the type of the variables being declared
+	private int            currentIdentifierType;
+
+	private final List<SubroutineDeclaration> subroutineDeclarations = new ArrayList<>();
+
+	// the signatures calls are checked against, or null to compile calls without checking them
+	private       ClassIndex  classIndex;
+	private final Set<String> warnings = new LinkedHashSet<>();
 
-	public CompilationEngine(VMWriter vmWriter) {
-		this.vmWriter = vmWriter;
-		this.symbolTable = new SymbolTable();
+	public CompilationEngine(Tokenizer tokenizer) {
+		this.tokenizer = tokenizer;
+		this.symbolTable = new SymbolTable(tokenizer.lexemeTable());
 	}
 
-	public void throwError() {
-		throw new Error();
+	public void setClassIndex(ClassIndex classIndex) {
+		this.classIndex = classIndex;
 	}
 
-	public void setTokenizer(Tokenizer tokenizer) {
-		this.tokenizer = tokenizer;
+	// problems that do not stop the class from compiling
+	public List<String> warnings() {
+		return new ArrayList<>(warnings);
 	}
 
-	public void compile() {
+	// compile errors are reported by the caller, which knows the file being compiled
+	public void throwError(String errorMessage) {
+		throw new Error(errorMessage);
+	}
+
+	public ClassDeclaration compile() {
 		tokenizer.advance();
 		// the first lexeme should be the "class" keyword
-		if (!tokenizer.tokenValue().equals("class")) {
-			System.out.println("'class' keyword expected");
-			throwError();
-		} else {
-			compileClass();
+		if (!tokenizer.isKeyword(Keyword.CLASS)) {
+			throwError("'class' keyword expected");
 		}
+		return compileClass();
 	}
 
 	public void advanceIfMoreTokens() {
@@ -49,18 +65,20 @@ public class CompilationEngine {
 			// System.out.println(tokenizer.tokenValue());
 			tokenizer.advance();
 		} else {
-			System.out.println("unexpected end of file");
-			throwError();
+			throwError("unexpected end of file");
 		}
 	}
 
 	public void resolveIdentifierKind() {
-		if (tokenizer.tokenValue().equals("static") || tokenizer.tokenValue().equals("field")
-			|| tokenizer.tokenValue().equals("var") || tokenizer.tokenValue().equals("argument")) {
-			currentIdentifierKind = IdentifierKind.valueOf(tokenizer.tokenValue().toUpperCase());
-		} else {
+		if (tokenizer.tokenType() != TokenType.KEYWORD) {
 			throw new Error("invalid identifier kind");
 		}
+		switch (tokenizer.keyword()) {
+			case STATIC -> currentIdentifierKind = IdentifierKind.STATIC;
+			case FIELD -> currentIdentifierKind = IdentifierKind.FIELD;
+			case VAR -> currentIdentifierKind = IdentifierKind.VAR;
+			default -> throw new Error("invalid identifier kind");
+		}
 	}
 
 	public String resolveSegment(IdentifierKind identifierKind) {
@@ -80,34 +98,32 @@ public class CompilationEngine {
 
 	// valid types are one of the three below, or an identifier/className
 	public Boolean checkIfIsValidType() {
-		return tokenizer.tokenValue().equals("int") ||
-			   tokenizer.tokenValue().equals("char") ||
-			   tokenizer.tokenValue().equals("boolean") ||
-			   tokenizer.tokenType().equals(TokenType.IDENTIFIER);
+		return tokenizer.isKeyword(Keyword.INT) ||
+			   tokenizer.isKeyword(Keyword.CHAR) ||
+			   tokenizer.isKeyword(Keyword.BOOLEAN) ||
+			   tokenizer.tokenType() == TokenType.IDENTIFIER;
 	}
 
-	public void compileSpecificSymbol(String symbol, String errorMessage) {
+	public void compileSpecificSymbol(Symbol symbol, String errorMessage) {
 		/*
 		 * '{' | '}' | '(' | ')' | '[' | ']' | '.' | ',' | ';' | '+' | '-' | '*' | '/' |
 		 * '&' | '|' | '<' | '>' | '=' | ' ~ '
 		 */
 
-		if (tokenizer.tokenValue().equals(symbol)) {
+		if (tokenizer.isSymbol(symbol)) {
 			advanceIfMoreTokens();
 		} else {
-			System.out.println(errorMessage);
-			throwError();
+			throwError(errorMessage);
 		}
 	}
 
 	public void compileType() {
 		// 'int' | 'char' | 'boolean' | className
 		if (checkIfIsValidType()) {
-			currentIdentifierType = tokenizer.tokenValue();
+			currentIdentifierType = tokenizer.tokenId();
 			advanceIfMoreTokens();
 		} else {
-			System.out.println("invalid type" + tokenizer.tokenValue());
-			throwError();
+			throwError("invalid type " + tokenizer.tokenValue());
 		}
 	}
 
@@ -116,41 +132,42 @@ public class CompilationEngine {
 	) {
 		// A sequence of letters, digits, and underscore ( '_' ) not starting with a
 		// digit.
-		if (tokenizer.tokenType().equals(TokenType.IDENTIFIER)) {
+		if (tokenizer.tokenType() == TokenType.IDENTIFIER) {
 			if (declarationOrUse.equals(DeclarationOrUse.DECLARATION)) {
 				if (identifierKind.equals(IdentifierKind.CLASS)) {
 					currentClassName = tokenizer.tokenValue();
+					currentClassId = tokenizer.tokenId();
 
 					// if it is a subroutine declaration, start a new subroutine symbol table
 				} else if (identifierKind.equals(IdentifierKind.SUBROUTINE)) {
 					// start new subroutine
 					// if it is a method, push the current class/object as "this"
 					symbolTable.startSubroutine();
-					if (currentSubroutineDeclarationKind.equals("method")) {
-						symbolTable.define("this", currentClassName, IdentifierKind.ARGUMENT);
+					if (currentSubroutineDeclarationKind == Keyword.METHOD) {
+						// a keyword's lexeme id is its ordinal
+						symbolTable.define(Keyword.THIS.ordinal(), currentClassId, IdentifierKind.ARGUMENT);
 					}
 
 					// if it is a valid variable, create an entry in the symbol table
 				} else if (isOneOfFourValidKinds) {
-					symbolTable.define(tokenizer.tokenValue(), currentIdentifierType, identifierKind);
+					symbolTable.define(tokenizer.tokenId(), currentIdentifierType, identifierKind);
 				}
 			} else if (declarationOrUse.equals(DeclarationOrUse.USE)) {
 			}
 			advanceIfMoreTokens();
 		} else {
-			System.out.printf("invalid %s%n", identifierKind);
-			throwError();
+			throwError(String.format("invalid %s", identifierKind));
 		}
 	}
 
 	public void compileCheckForAdditionalVarNamesDeclaration() {
-		while (tokenizer.tokenValue().equals(",")) {
+		while (tokenizer.isSymbol(Symbol.COMMA)) {
 			advanceIfMoreTokens();
 			compileIdentifier(currentIdentifierKind, DeclarationOrUse.DECLARATION, true);
 		}
 	}
 
-	public void compileClass() {
+	public ClassDeclaration compileClass() {
 		// 'class' className '{' classVarDec* subroutineDec* '}'
 		advanceIfMoreTokens();
 
@@ -158,35 +175,30 @@ public class CompilationEngine {
 		compileIdentifier(IdentifierKind.CLASS, DeclarationOrUse.DECLARATION, false);
 
 		// symbol { expected, opening bracket for the class block
-		compileSpecificSymbol("{", "{ expected");
+		compileSpecificSymbol(Symbol.LEFT_BRACE, "{ expected");
 
 		// the only valid options are one of the 5 keywords that begin a classVarDec or
 		// subroutineDec, or a }
-		while (tokenizer.tokenType().equals(TokenType.KEYWORD)) {
-			if (tokenizer.tokenValue().equals("static") ||
-				tokenizer.tokenValue().equals("field")) {
-				compileClassVarDec();
-			} else if (tokenizer.tokenValue().equals("constructor") ||
-					   tokenizer.tokenValue().equals("function") ||
-					   tokenizer.tokenValue().equals("method") ||
-					   tokenizer.tokenValue().equals("void")) {
-				compileSubroutine();
-			} else {
-				System.out.println("invalid keyword");
-				throwError();
+		while (tokenizer.tokenType() == TokenType.KEYWORD) {
+			switch (tokenizer.keyword()) {
+				case STATIC, FIELD -> compileClassVarDec();
+				case CONSTRUCTOR, FUNCTION, METHOD, VOID -> compileSubroutine();
+				default -> {
+					throwError("invalid keyword");
+				}
 			}
 		}
 
-		if (!tokenizer.tokenValue().equals("}")) {
-			System.out.println("keyword or } expected");
-			throwError();
+		if (!tokenizer.isSymbol(Symbol.RIGHT_BRACE)) {
+			throwError("keyword or } expected");
 		}
 
 		// there should be no more tokens after the class block ends
 		if (tokenizer.hasMoreTokens()) {
-			System.out.println("unexpected lexeme");
-			throwError();
+			throwError("unexpected lexeme");
 		}
+		return new ClassDeclaration(currentClassName, symbolTable.varCount(IdentifierKind.STATIC),
+									symbolTable.varCount(IdentifierKind.FIELD), subroutineDeclarations);
 	}
 
 	public void compileClassVarDec() {
@@ -199,7 +211,7 @@ public class CompilationEngine {
 		compileIdentifier(currentIdentifierKind, DeclarationOrUse.DECLARATION, true);
 		// check for additional varNames
 		compileCheckForAdditionalVarNamesDeclaration();
-		compileSpecificSymbol(";", "; expected after class variable declaration");
+		compileSpecificSymbol(Symbol.SEMICOLON, "; expected after class variable declaration");
 	}
 
 	public void compileSubroutine() {
@@ -207,14 +219,14 @@ public class CompilationEngine {
 		 * ( 'constructor' | 'function' | 'method' ) ( 'void' | type) subroutineName '('
 		 * parameterList ')' subroutineBody
 		 */
-		currentSubroutineDeclarationKind = tokenizer.tokenValue();
+		currentSubroutineDeclarationKind = tokenizer.keyword();
 		String subroutineReturnType;
 		String subroutineName;
 
 		advanceIfMoreTokens();
 
 		// return type expected
-		if (tokenizer.tokenValue().equals("void")) {
+		if (tokenizer.isKeyword(Keyword.VOID)) {
 			subroutineReturnType = "void";
 			advanceIfMoreTokens();
 		} else {
@@ -223,57 +235,32 @@ public class CompilationEngine {
 		}
 
 		subroutineName = tokenizer.tokenValue();
-		subroutines.put(subroutineName,
-						new Subroutine(subroutineName, subroutineReturnType, currentSubroutineDeclarationKind)
-		);
 		compileIdentifier(IdentifierKind.SUBROUTINE, DeclarationOrUse.DECLARATION, false);
 
-		compileSpecificSymbol("(", "( expected");
-		if (!tokenizer.tokenValue().equals(")")) {
+		compileSpecificSymbol(Symbol.LEFT_PARENTHESIS, "( expected");
+		if (!tokenizer.isSymbol(Symbol.RIGHT_PARENTHESIS)) {
 			compileParameterList();
 		}
-		compileSpecificSymbol(")", ") expected");
+		compileSpecificSymbol(Symbol.RIGHT_PARENTHESIS, ") expected");
 
 		// subroutine body '{' varDec* statements '}'
-		/*
-		 * Within a VM function corresponding to a Jack method or a Jack constructor,
-		 * access to the fields of the this object is obtained by first pointing the
-		 * virtual this segment to the current object (using pointer 0 ) and then
-		 * accessing individual fields via this index references, where index is an
-		 * non-negative integer.
-		 */
-		compileSpecificSymbol("{", "{ expected");
+		compileSpecificSymbol(Symbol.LEFT_BRACE, "{ expected");
 
 		// 0 or more var declarations expected
-		while (tokenizer.tokenValue().equals("var")) {
+		while (tokenizer.isKeyword(Keyword.VAR)) {
 			compileVarDec();
 		}
 
-		// write the function after the local variables have been recorded
-		vmWriter.writeFunction(String.format("%s.%s", currentClassName, subroutineName),
-							   symbolTable.varCount(IdentifierKind.VAR)
-		);
-
-		// set "this"
-		if (currentSubroutineDeclarationKind.equals("method")) {
-			// if it is a method, get the "this" from the first argument and set THIS
-			// accordingly
-			vmWriter.writePush("argument", 0);
-			vmWriter.writePop("pointer", 0);
-		} else if (currentSubroutineDeclarationKind.equals("constructor")) {
-			// if it is a constructor, allocate memory depending on the number of
-			// class-scope variables and
-			// set the root of THIS to that memory address
-			vmWriter.writePush("constant",
-							   (symbolTable.varCount(IdentifierKind.STATIC) +
-								symbolTable.varCount(IdentifierKind.FIELD)
-							   )
-			);
-			vmWriter.writeCall("Memory.alloc", 1);
-			vmWriter.writePop("pointer", 0);
-		}
-		compileStatements();
-		compileSpecificSymbol("}", "} expected");
+		List<Statement> body = compileStatements();
+		compileSpecificSymbol(Symbol.RIGHT_BRACE, "} expected");
+
+		// the this of a method is an argument in the symbol table, but not a parameter
+		int parameterCount = symbolTable.varCount(IdentifierKind.ARGUMENT)
+							 - (currentSubroutineDeclarationKind == Keyword.METHOD ? 1 : 0);
+		subroutineDeclarations.add(new SubroutineDeclaration(
+				String.format("%s.%s", currentClassName, subroutineName), currentSubroutineDeclarationKind,
+				subroutineReturnType, parameterCount, symbolTable.varCount(IdentifierKind.VAR), body
+		));
 	}
 
 	public void compileParameterList() {
@@ -283,8 +270,8 @@ public class CompilationEngine {
 		// varName/identifier expected;
 		compileIdentifier(IdentifierKind.ARGUMENT, DeclarationOrUse.DECLARATION, true);
 		// check for additional varNames, along with type
-		while (tokenizer.tokenValue().equals(",")) {
-			compileSpecificSymbol(",", ", expected");
+		while (tokenizer.isSymbol(Symbol.COMMA)) {
+			compileSpecificSymbol(Symbol.COMMA, ", expected");
 			compileType();
 			compileIdentifier(IdentifierKind.ARGUMENT, DeclarationOrUse.DECLARATION, true);
 		}
@@ -292,373 +279,334 @@ public class CompilationEngine {
 
 	public void compileVarDec() {
 		// 'var' type varName ( ',' varName)* ';'
-		if (tokenizer.tokenValue().equals("var")) {
+		if (tokenizer.isKeyword(Keyword.VAR)) {
 			resolveIdentifierKind();
 			advanceIfMoreTokens();
 		} else {
-			System.out.println("var keyword expected");
-			throwError();
+			throwError("var keyword expected");
 		}
 
 		compileType();
 		// one or more varName expected
 		compileIdentifier(IdentifierKind.VAR, DeclarationOrUse.DECLARATION, true);
 		compileCheckForAdditionalVarNamesDeclaration();
-		compileSpecificSymbol(";", "; expected");
+		compileSpecificSymbol(Symbol.SEMICOLON, "; expected");
 	}
 
-	public void compileStatements() {
+	public List<Statement> compileStatements() {
 		// statement*
-		while (tokenizer.tokenValue().equals("let") || tokenizer.tokenValue().equals("if")
-			   || tokenizer.tokenValue().equals("while") || tokenizer.tokenValue().equals("do")
-			   || tokenizer.tokenValue().equals("return")) {
-			switch (tokenizer.tokenValue()) {
-				case "let" -> compileLet();
-				case "if" -> compileIf();
-				case "while" -> compileWhile();
-				case "do" -> compileDo();
-				case "return" -> compileReturn();
+		List<Statement> statements = new ArrayList<>();
+		while (tokenizer.tokenType() == TokenType.KEYWORD) {
+			switch (tokenizer.keyword()) {
+				case LET -> statements.add(compileLet());
+				case IF -> statements.add(compileIf());
+				case WHILE -> statements.add(compileWhile());
+				case DO -> statements.add(compileDo());
+				case RETURN -> statements.add(compileReturn());
+				default -> {
+					return statements;
+				}
 			}
 		}
+		return statements;
 	}
 
-	public void compileDo() {
+	public Statement compileDo() {
 		// 'do' subroutineCall ';'
-		/*
-		 * When translating a do sub statement where sub is a void method or function,
-		 * the caller of the corresponding VM function must pop (and ignore) the
-		 * returned value (which is always the constant 0)
-		 */
 		advanceIfMoreTokens();
-		compileSubroutineCall();
-		compileSpecificSymbol(";", "; expected");
-		vmWriter.writePop("temp", 0);
+		Expression call = compileSubroutineCall();
+		compileSpecificSymbol(Symbol.SEMICOLON, "; expected");
+		return new Statement.Do(call);
 	}
 
-	public void compileLet() {
+	public Statement compileLet() {
 		// 'let' varName ( '[' expression ']' )? '=' expression ';'
 		advanceIfMoreTokens();
 		String currentIdentifier = tokenizer.tokenValue();
-		compileIdentifier(symbolTable.kindOf(tokenizer.tokenValue()), DeclarationOrUse.USE, true);
-		boolean arrayAccess = false;
+		int entry = currentVariable();
+		compileIdentifier(kindOf(entry), DeclarationOrUse.USE, true);
+		Expression index = null;
 
 		// [ expression ]
 		// it is an array access
-		if (tokenizer.tokenValue().equals("[")) {
-			arrayAccess = true;
-			compileSpecificSymbol("[", "[ expected");
-			compileExpression();
-			compileSpecificSymbol("]", "] expected");
-			// push the array address from the variable
-			vmWriter.writePush(resolveSegment(symbolTable.kindOf(currentIdentifier)),
-							   symbolTable.indexOf(currentIdentifier)
-			);
-			// add the calculated index to the address
-			vmWriter.writeArithmetic("add");
-		}
-		compileSpecificSymbol("=", "= expected");
-		compileExpression();
-
-		// if it is an array access and not a declaration
-		if (symbolTable.typeOf(currentIdentifier).equals("Array") && arrayAccess) {
-			// save the value of the expression in a temp variable
-			vmWriter.writePop("temp", 0);
-			// point the THAT memory segment to the complete index address calculated before
-			// the "="
-			vmWriter.writePop("pointer", 1);
-			// push the expression value back on the stack
-			vmWriter.writePush("temp", 0);
-			// save it in THAT
-			vmWriter.writePop("that", 0);
-		} else {
-			// pop the result of the expression into the variable
-			vmWriter.writePop(resolveSegment(symbolTable.kindOf(currentIdentifier)),
-							  symbolTable.indexOf(currentIdentifier)
-			);
+		if (tokenizer.isSymbol(Symbol.LEFT_BRACKET)) {
+			compileSpecificSymbol(Symbol.LEFT_BRACKET, "[ expected");
+			index = compileExpression();
+			compileSpecificSymbol(Symbol.RIGHT_BRACKET, "] expected");
 		}
-		compileSpecificSymbol(";", "; expected");
+		compileSpecificSymbol(Symbol.EQUALS, "= expected");
+		Expression value = compileExpression();
+		compileSpecificSymbol(Symbol.SEMICOLON, "; expected");
+		return new Statement.Let(variable(currentIdentifier, entry), index, value);
 	}
 
-	public void compileWhile() {
+	public Statement compileWhile() {
 		// 'while' '(' expression ')' '{' statements '}'
 		advanceIfMoreTokens();
 
-		/*
-		 * label L1 VM code for computing ~(cond) if-goto L2 VM code for executing s1
-		 * goto L1 label L2 ...
-		 */
-		Integer labelRandom = Math.abs(random.nextInt());
-
-		vmWriter.writeLabel(String.format("WHILE1_%d", labelRandom));
-		compileSpecificSymbol("(", "( expected");
-		compileExpression();
-		compileSpecificSymbol(")", ") expected");
-		vmWriter.writeArithmetic("not");
-		vmWriter.writeIf(String.format("WHILE2_%d", labelRandom));
-		compileSpecificSymbol("{", "{ expected");
-		compileStatements();
-		compileSpecificSymbol("}", "} expected");
-		vmWriter.writeGoto(String.format("WHILE1_%d", labelRandom));
-		vmWriter.writeLabel(String.format("WHILE2_%d", labelRandom));
-	}
-
-	public void compileReturn() {
+		compileSpecificSymbol(Symbol.LEFT_PARENTHESIS, "( expected");
+		Expression condition = compileExpression();
+		compileSpecificSymbol(Symbol.RIGHT_PARENTHESIS, ") expected");
+		return new Statement.While(condition, compileBlock());
+	}
+
+	public Statement compileReturn() {
 		// 'return' expression? ';'
-		/*
-		 * VM functions corresponding to void Jack methods and functions must return the
-		 * constant 0 as their return value.
-		 */
 		advanceIfMoreTokens();
 
-		if (!tokenizer.tokenValue().equals(";")) {
-			compileExpression();
-		} else {
-			vmWriter.writePush("constant", 0);
+		Expression value = null;
+		if (!tokenizer.isSymbol(Symbol.SEMICOLON)) {
+			value = compileExpression();
 		}
-		compileSpecificSymbol(";", "; expected");
-		vmWriter.writeReturn();
+		compileSpecificSymbol(Symbol.SEMICOLON, "; expected");
+		return new Statement.Return(value);
 	}
 
-	public void compileIf() {
+	public Statement compileIf() {
 		/*
 		 * 'if' '(' expression ')' '{' statements '}' ( 'else' '{' statements '}' )?
 		 */
-		/*
-		 * VM code for computing ~(cond) if-goto L1 VM code for executing s1 goto L2
-		 * label L1 VM code for executing s2 label L2 ...
-		 */
-
-		Integer labelRandom = Math.abs(random.nextInt());
-
 		advanceIfMoreTokens();
-		compileSpecificSymbol("(", "( expected");
-		compileExpression();
-		compileSpecificSymbol(")", ") expected");
-		vmWriter.writeArithmetic("not");
-		vmWriter.writeIf(String.format("IF1_%d", labelRandom));
-		compileSpecificSymbol("{", "{ expected");
-		compileStatements();
-		compileSpecificSymbol("}", "} expected");
-		vmWriter.writeGoto(String.format("IF2_%d", labelRandom));
-		vmWriter.writeLabel(String.format("IF1_%d", labelRandom));
-
-		while (tokenizer.tokenValue().equals("else")) {
+		compileSpecificSymbol(Symbol.LEFT_PARENTHESIS, "( expected");
+		Expression condition = compileExpression();
+		compileSpecificSymbol(Symbol.RIGHT_PARENTHESIS, ") expected");
+
+		List<Statement> thenStatements = compileBlock();
+		List<Statement> elseStatements = new ArrayList<>();
+		while (tokenizer.isKeyword(Keyword.ELSE)) {
 			advanceIfMoreTokens();
-			compileSpecificSymbol("{", "{ expected");
-			compileStatements();
-			compileSpecificSymbol("}", "} expected");
+			elseStatements.addAll(compileBlock());
 		}
-		vmWriter.writeLabel(String.format("IF2_%d", labelRandom));
+		return new Statement.If(condition, thenStatements, elseStatements);
 	}
 
-	public void compileExpression() {
+	// '{' statements '}'
+	private List<Statement> compileBlock() {
+		compileSpecificSymbol(Symbol.LEFT_BRACE, "{ expected");
+		List<Statement> statements = compileStatements();
+		compileSpecificSymbol(Symbol.RIGHT_BRACE, "} expected");
+		return statements;
+	}
+
+	// parse an expression into a tree, constants are folded later by the fold pass
+	public Expression compileExpression() {
 		// term (op term)*
-		compileTerm();
-		while (tokenizer.tokenValue().equals("+") || tokenizer.tokenValue().equals("-")
-			   || tokenizer.tokenValue().equals("*") || tokenizer.tokenValue().equals("/")
-			   || tokenizer.tokenValue().equals("&") || tokenizer.tokenValue().equals("|")
-			   || tokenizer.tokenValue().equals("<") || tokenizer.tokenValue().equals(">")
-			   || tokenizer.tokenValue().equals("=")) {
-			String operator = tokenizer.tokenValue();
-
-			compileSpecificSymbol(tokenizer.tokenValue(), String.format("%s expected", tokenizer.tokenValue()));
-			compileTerm();
-			if (operator.equals("+")) {
-				vmWriter.writeArithmetic("add");
-			} else if (operator.equals("-")) {
-				vmWriter.writeArithmetic("sub");
-			} else if (operator.equals("*")) {
-				vmWriter.writeArithmetic("call Math.multiply 2");
-			} else if (operator.equals("/")) {
-				vmWriter.writeArithmetic("call Math.divide 2");
-			} else if (operator.equals("&")) {
-				vmWriter.writeArithmetic("and");
-			} else if (operator.equals("|")) {
-				vmWriter.writeArithmetic("or");
-			} else if (operator.equals("<")) {
-				vmWriter.writeArithmetic("lt");
-			} else if (operator.equals(">")) {
-				vmWriter.writeArithmetic("gt");
-			} else if (operator.equals("=")) {
-				vmWriter.writeArithmetic("eq");
-			}
+		Expression expression = compileTerm();
+		while (tokenizer.tokenType() == TokenType.SYMBOL && isBinaryOperator(tokenizer.symbol())) {
+			Symbol operator = tokenizer.symbol();
+			advanceIfMoreTokens();
+			expression = new Expression.Binary(operator, expression, compileTerm());
 		}
+		return expression;
+	}
+
+	private static boolean isBinaryOperator(Symbol symbol) {
+		return switch (symbol) {
+			case PLUS, MINUS, ASTERISK, SLASH, AMPERSAND, PIPE, LESS_THAN, GREATER_THAN, EQUALS -> true;
+			default -> false;
+		};
 	}
 
-	public void compileTerm() {
+	public Expression compileTerm() {
 		/*
 		 * integerConstant | stringConstant | keywordConstant | varName | varName '['
 		 * expression ']' | subroutineCall | '(' expression ')' | unaryOp term
 		 */
-		if (tokenizer.tokenType().equals(TokenType.INT_CONST)) {
-			vmWriter.writePush("constant", Integer.valueOf(tokenizer.tokenValue()));
-			advanceIfMoreTokens();
-		} else if (tokenizer.tokenType().equals(TokenType.STRING_CONST)) {
-			/*
-			 * String constants are created using the OS constructor String.new(length)
-			 * String assignments like x="cc...c" are handled using a series of calls to the
-			 * OS routine String.appendChar(nextChar)
-			 */
-			vmWriter.writePush("constant", tokenizer.tokenValue().length());
-			vmWriter.writeCall("String.new", 1);
-			for (int i = 0; i < tokenizer.tokenValue().length(); i++) {
-				vmWriter.writePush("constant", (int) tokenizer.tokenValue().charAt(i));
-				vmWriter.writeCall("String.appendChar", 2);
+		return switch (tokenizer.tokenType()) {
+			case INT_CONST -> {
+				Expression constant = new Expression.Constant(tokenizer.intValue());
+				advanceIfMoreTokens();
+				yield constant;
 			}
-			advanceIfMoreTokens();
+			case STRING_CONST -> compileStringConstant();
+			case KEYWORD -> compileKeywordConstant();
+			case IDENTIFIER -> compileIdentifierTerm();
+			case SYMBOL -> compileSymbolTerm();
+		};
+	}
+
+	public Expression compileStringConstant() {
+		Expression stringConstant = new Expression.StringConstant(tokenizer.tokenValue());
+		advanceIfMoreTokens();
+		return stringConstant;
+	}
 
-		} else if (tokenizer.tokenValue().equals("true") || tokenizer.tokenValue().equals("false")
-				   || tokenizer.tokenValue().equals("null") || tokenizer.tokenValue().equals("this")) {
-			/*
-			 * null and false are mapped to the constant 0. True is mapped to the constant
-			 * -1 (this constant can be obtained via push constant 1 followed by neg ).
-			 */
-			if (tokenizer.tokenValue().equals("null") || tokenizer.tokenValue().equals("false")) {
-				vmWriter.writePush("constant", 0);
-			} else if (tokenizer.tokenValue().equals("true")) {
-				vmWriter.writePush("constant", 1);
-				vmWriter.writeArithmetic("neg");
-			} else if (tokenizer.tokenValue().equals("this")) {
-				vmWriter.writePush("pointer", 0);
+	public Expression compileKeywordConstant() {
+		/*
+		 * null and false are mapped to the constant 0. True is mapped to the constant
+		 * -1 (this constant can be obtained via push constant 1 followed by neg ).
+		 */
+		Expression keywordConstant = switch (tokenizer.keyword()) {
+			case NULL, FALSE -> new Expression.Constant(0);
+			case TRUE -> new Expression.Constant(-1);
+			case THIS -> new Expression.This();
+			default -> {
+				throwError("invalid term");
+				yield null;
 			}
-			advanceIfMoreTokens();
+		};
+		advanceIfMoreTokens();
+		return keywordConstant;
+	}
 
-		} else if (tokenizer.tokenType().equals(TokenType.IDENTIFIER)) {
-			// varName | varName '[' expression ']'
-			String currentIdentifier = tokenizer.tokenValue();
-			advanceIfMoreTokens();
+	public Expression compileIdentifierTerm() {
+		// varName | varName '[' expression ']' | subroutineCall
+		String currentIdentifier = tokenizer.tokenValue();
+		int entry = currentVariable();
 
-			if (tokenizer.tokenValue().equals("[")) {
-				// the term is varName '[' expression ']'
-				// array access
-				// array index calculated within the brackets
-				compileSpecificSymbol("[", "[ expected");
-				compileExpression();
-				compileSpecificSymbol("]", "] expected");
-
-				// push the variable that contains the array memory address
-				vmWriter.writePush(resolveSegment(symbolTable.kindOf(currentIdentifier)),
-								   symbolTable.indexOf(currentIdentifier)
-				);
-				// add it to the calculated index to get the complete address of the index
-				vmWriter.writeArithmetic("add");
-				// set the THAT memory segment to the index address
-				vmWriter.writePop("pointer", 1);
-				// push the contents of that memory address
-				vmWriter.writePush("that", 0);
-
-			} else if (tokenizer.tokenValue().equals("(") || tokenizer.tokenValue().equals(".")) {
-				// the term is a subroutineCall
-				tokenizer.reverse();
-				compileSubroutineCall();
-			} else {
-				// the term is a single identifier
-				vmWriter.writePush(resolveSegment(symbolTable.kindOf(currentIdentifier)),
-								   symbolTable.indexOf(currentIdentifier)
-				);
-			}
+		if (tokenizer.peekSymbol(Symbol.LEFT_PARENTHESIS) || tokenizer.peekSymbol(Symbol.DOT)) {
+			// the term is a subroutineCall
+			return compileSubroutineCall();
+		}
+		advanceIfMoreTokens();
+
+		if (tokenizer.isSymbol(Symbol.LEFT_BRACKET)) {
+			// the term is varName '[' expression ']'
+			compileSpecificSymbol(Symbol.LEFT_BRACKET, "[ expected");
+			Expression index = compileExpression();
+			compileSpecificSymbol(Symbol.RIGHT_BRACKET, "] expected");
+			return new Expression.ArrayElement(variable(currentIdentifier, entry), index);
+		}
+		// the term is a single identifier
+		return variable(currentIdentifier, entry);
+	}
+
+	private Expression.Variable variable(String name, int entry) {
+		return new Expression.Variable(name, resolveSegment(kindOf(entry)), symbolTable.index(entry));
+	}
+
+	// the symbol table entry of the variable named by the current token, or -1
+	private int currentVariable() {
+		return tokenizer.tokenType() == TokenType.IDENTIFIER ? symbolTable.resolve(tokenizer.tokenId()) : -1;
+	}
 
-		} else if (tokenizer.tokenValue().equals("(")) {
-			// '(' expression ')'
-			compileSpecificSymbol("(", "( expected");
-			compileExpression();
-			compileSpecificSymbol(")", ") expected");
-
-		} else if (tokenizer.tokenValue().equals("-") || tokenizer.tokenValue().equals("~")) {
-			// unaryOp term
-			String operator = tokenizer.tokenValue();
-
-			compileSpecificSymbol(tokenizer.tokenValue(), String.format("%s expected", tokenizer.tokenValue()));
-			compileTerm();
-			if (operator.equals("-")) {
-				vmWriter.writeArithmetic("neg");
-			} else if (operator.equals("~")) {
-				vmWriter.writeArithmetic("not");
+	private IdentifierKind kindOf(int entry) {
+		return entry >= 0 ? symbolTable.kind(entry) : IdentifierKind.NONE;
+	}
+
+	public Expression compileSymbolTerm() {
+		switch (tokenizer.symbol()) {
+			case LEFT_PARENTHESIS -> {
+				// '(' expression ')'
+				compileSpecificSymbol(Symbol.LEFT_PARENTHESIS, "( expected");
+				Expression expression = compileExpression();
+				compileSpecificSymbol(Symbol.RIGHT_PARENTHESIS, ") expected");
+				return expression;
+			}
+			case MINUS, TILDE -> {
+				// unaryOp term
+				Symbol operator = tokenizer.symbol();
+				advanceIfMoreTokens();
+				return new Expression.Unary(operator, compileTerm());
+			}
+			default -> {
+				throwError("invalid term");
+				return null;
 			}
-		} else {
-			System.out.println("invalid term");
-			throwError();
 		}
 	}
 
-	public void compileSubroutineCall() {
+	public Expression.Call compileSubroutineCall() {
 		// subroutineName '(' expressionList ')' | (className | varName) '.'
 		// subroutineName '(' expressionList ')'
-		// look ahead to check if the identifier is a subroutineName, className, or
-		// varName
-		if (tokenizer.tokenType().equals(TokenType.IDENTIFIER)) {
-			String subroutineName = "";
-			Integer subroutineCallArgumentsCount = 0;
-			String subroutineOrClassOrVarName = tokenizer.tokenValue();
-			advanceIfMoreTokens();
+		// peek at the next token to check if the identifier is a subroutineName,
+		// className, or varName
+		if (tokenizer.tokenType() != TokenType.IDENTIFIER) {
+			throwError("invalid subroutine call");
+		}
+		String subroutineName = "";
+		List<Expression> arguments = new ArrayList<>();
+		// the object of a method call, the first argument
+		Expression receiver = null;
+		String subroutineOrClassOrVarName = tokenizer.tokenValue();
+		int entry = currentVariable();
+
+		if (tokenizer.peekSymbol(Symbol.LEFT_PARENTHESIS)) {
+			// the identifier is a subroutine
+			compileIdentifier(IdentifierKind.SUBROUTINE, DeclarationOrUse.USE, false);
+			// set subroutine name
+			subroutineName = String.format("%s.%s", currentClassName, subroutineOrClassOrVarName);
+			// "this" is the first argument, unless the index knows that it is not a method
+			ClassIndex.Signature signature = classIndex != null ? classIndex.signature(subroutineName) : null;
+			if (signature == null || signature.kind() == Keyword.METHOD) {
+				receiver = new Expression.This();
+				arguments.add(receiver);
+			}
 
-			if (tokenizer.tokenValue().equals("(")) {
-				// the identifier is a subroutine
-				tokenizer.reverse();
-				compileIdentifier(IdentifierKind.SUBROUTINE, DeclarationOrUse.USE, false);
-				// push "this" as first argument
-				vmWriter.writePush("pointer", 0);
-				subroutineCallArgumentsCount++;
-				// set subroutine name
-				subroutineName = String.format("%s.%s", currentClassName, subroutineOrClassOrVarName);
-
-			} else if (tokenizer.tokenValue().equals(".")) {
-				// the identifier is a className or varName
-				tokenizer.reverse();
-				compileIdentifier(symbolTable.kindOf(tokenizer.tokenValue()), DeclarationOrUse.USE, false);
-				compileSpecificSymbol(".", ". expected");
-
-				if (symbolTable.contains(subroutineOrClassOrVarName)) {
-					// subroutineOrClassOrVarName is a varName
-					/*
-					 * Before calling a VM function, the caller (itself a VM function) must push the
-					 * function’s arguments onto the stack. If the called VM function corresponds to
-					 * a Jack method, the first pushed argument must be a reference to the object on
-					 * which the method is supposed to operate.
-					 */
-					vmWriter.writePush(resolveSegment(symbolTable.kindOf(subroutineOrClassOrVarName)),
-									   symbolTable.indexOf(subroutineOrClassOrVarName)
-					);
-					subroutineCallArgumentsCount++;
-					subroutineName = String.format("%s.%s", symbolTable.typeOf(subroutineOrClassOrVarName),
-												   tokenizer.tokenValue()
-					);
-
-				} else {
-					subroutineName = String.format("%s.%s", subroutineOrClassOrVarName, tokenizer.tokenValue());
-				}
-				compileIdentifier(IdentifierKind.SUBROUTINE, DeclarationOrUse.USE, false);
+		} else if (tokenizer.peekSymbol(Symbol.DOT)) {
+			// the identifier is a className or varName
+			compileIdentifier(kindOf(entry), DeclarationOrUse.USE, false);
+			compileSpecificSymbol(Symbol.DOT, ". expected");
+
+			if (entry >= 0) {
+				// subroutineOrClassOrVarName is a varName
+				/*
+				 * Before calling a VM function, the caller (itself a VM function) must push the
+				 * function’s arguments onto the stack. If the called VM function corresponds to
+				 * a Jack method, the first pushed argument must be a reference to the object on
+				 * which the method is supposed to operate.
+				 */
+				receiver = variable(subroutineOrClassOrVarName, entry);
+				arguments.add(receiver);
+				subroutineName = String.format("%s.%s", symbolTable.typeName(entry),
+											   tokenizer.tokenValue()
+				);
 
 			} else {
-				System.out.println("invalid subroutine call");
-				throwError();
+				subroutineName = String.format("%s.%s", subroutineOrClassOrVarName, tokenizer.tokenValue());
 			}
-			compileSpecificSymbol("(", "( expected");
-
-			if (!tokenizer.tokenValue().equals(")")) {
-				subroutineCallArgumentsCount = compileExpressionList(subroutineCallArgumentsCount);
-			}
-			compileSpecificSymbol(")", ") expected");
-			vmWriter.writeCall(subroutineName, subroutineCallArgumentsCount);
+			compileIdentifier(IdentifierKind.SUBROUTINE, DeclarationOrUse.USE, false);
 
 		} else {
-			System.out.println("invalid subroutine call");
-			throwError();
+			throwError("invalid subroutine call");
+		}
+		compileSpecificSymbol(Symbol.LEFT_PARENTHESIS, "( expected");
+
+		if (!tokenizer.isSymbol(Symbol.RIGHT_PARENTHESIS)) {
+			compileExpressionList(arguments);
+		}
+		compileSpecificSymbol(Symbol.RIGHT_PARENTHESIS, ") expected");
+		checkCall(subroutineName, arguments, receiver != null);
+		return new Expression.Call(subroutineName, arguments);
+	}
+
+	/*
+	check a call against the class index
+	a call to a class that is neither compiled nor part of the OS is only a warning, the class
+	may be compiled on its own
+	*/
+	private void checkCall(String name, List<Expression> arguments, boolean onObject) {
+		if (classIndex == null) {
+			return;
+		}
+		String className = ClassIndex.className(name);
+		ClassIndex.Signature signature = classIndex.signature(name);
+		if (signature == null) {
+			if (classIndex.hasSignatures(className)) {
+				throwError("unknown subroutine " + name);
+			} else if (!classIndex.exists(className)) {
+				warnings.add(String.format("call to %s, %s is not a known class", name, className));
+			}
+			return;
+		}
+		if (onObject && signature.kind() != Keyword.METHOD) {
+			throwError(String.format("%s is a %s, not a method", name, signature.kind().lexeme()));
+		} else if (!onObject && signature.kind() == Keyword.METHOD) {
+			throwError(String.format("method %s called without an object", name));
+		}
+		if (arguments.size() != signature.argumentCount()) {
+			throwError(String.format("%s expects %d arguments, got %d", name, signature.parameterCount(),
+									 arguments.size() - (onObject ? 1 : 0)));
 		}
 	}
 
-	public Integer compileExpressionList(Integer subroutineCallArgumentsCount) {
+	public void compileExpressionList(List<Expression> arguments) {
 		// (expression ( ',' expression)* )?
-		compileExpression();
-		// increment arguments counter
-		subroutineCallArgumentsCount++;
+		arguments.add(compileExpression());
 
-		while (tokenizer.tokenValue().equals(",")) {
-			compileSpecificSymbol(",", ", expected");
-			compileExpression();
-			// increment arguments counter
-			subroutineCallArgumentsCount++;
+		while (tokenizer.isSymbol(Symbol.COMMA)) {
+			compileSpecificSymbol(Symbol.COMMA, ", expected");
+			arguments.add(compileExpression());
 		}
-		return subroutineCallArgumentsCount;
 	}
 }
@@ -0,0 +1,91 @@
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Properties;
+
+/*
+cache for incremental compilation, stored next to the compiled files
+for every input file it records a hash of the file content, the compiler version and the
+options that affect the generated code; a class whose hash is unchanged and whose output
+file still exists does not need to be compiled again
+*/
+public class CompileCache {
+
+	private final File                    cacheFile;
+	private final String                  compilerFingerprint;
+	private final Properties              entries = new Properties();
+	// hashes computed for the current run, recorded once the class compiled successfully
+	private final HashMap<String, String> pending = new HashMap<>();
+	private       int                     hits;
+	private       int                     misses;
+
+	public CompileCache(File cacheFile, String compilerFingerprint) throws IOException {
+		this.cacheFile = cacheFile;
+		this.compilerFingerprint = compilerFingerprint;
+		if (cacheFile.exists()) {
+			try (Reader reader = new FileReader(cacheFile)) {
+				entries.load(reader);
+			}
+		}
+	}
+
+	/*
+	return true if the output of the input file is still valid
+	otherwise forget the old entry, so that a failed compilation can never leave a valid
+	looking entry for a partially written output file
+	*/
+	public boolean isUpToDate(File inputFile, File outputFile) throws IOException {
+		String hash = hash(inputFile);
+		if (hash.equals(entries.getProperty(inputFile.getName())) && outputFile.exists()) {
+			hits++;
+			return true;
+		}
+		misses++;
+		entries.remove(inputFile.getName());
+		pending.put(inputFile.getName(), hash);
+		return false;
+	}
+
+	// record that the input file compiled successfully
+	public void compiled(File inputFile) {
+		String hash = pending.remove(inputFile.getName());
+		if (hash != null) {
+			entries.setProperty(inputFile.getName(), hash);
+		}
+	}
+
+	public void remove(String inputFileName) {
+		entries.remove(inputFileName);
+	}
+
+	public void save() throws IOException {
+		try (Writer writer = new FileWriter(cacheFile)) {
+			entries.store(writer, "incremental compilation cache, input file = content hash");
+		}
+	}
+
+	public String statistics() {
+		return String.format("incremental: %d up to date, %d compiled", hits, misses);
+	}
+
+	private String hash(File inputFile) throws IOException {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			digest.update(compilerFingerprint.getBytes(StandardCharsets.UTF_8));
+			digest.update((byte) 0);
+			digest.update(Files.readAllBytes(inputFile.toPath()));
+			return String.format("%064x", new BigInteger(1, digest.digest()));
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+}
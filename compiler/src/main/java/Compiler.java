@@ -1,52 +1,428 @@
+import java.io.BufferedWriter;
 import java.io.File;
+import java.io.FileWriter;
 import java.io.IOException;
+import java.io.PrintStream;
+import java.io.StringWriter;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Comparator;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 public class Compiler {
-	static final Path OUTPUT_DIRECTORY = Paths.get("")
-											  .toAbsolutePath()
-											  .resolve("compiled_files");
+	static final Path   OUTPUT_DIRECTORY = Paths.get("")
+												.toAbsolutePath()
+												.resolve("compiled_files");
+	// part of the incremental cache key, bump it whenever the generated code changes
+	static final String VERSION          = "1.10";
+	// the cache of the class index, kept between runs as its entries check their source
+	static final String CLASS_INDEX_FILE = ".class-index";
+
+	// where statistics are printed
+	private final PrintStream  out;
+	// print per-file tokenizer statistics (--stats)
+	private       boolean      printStatistics = false;
+	// number of classes compiled concurrently (--threads=N)
+	private       int          threads         = 1;
+	// compile every class on its own virtual thread (--virtual-threads)
+	private       boolean      virtualThreads  = false;
+	// keep the output directory and only compile classes that changed (--incremental)
+	private       boolean      incremental     = false;
+	private       CompileCache compileCache;
+	// translate straight to Hack assembly in the same process, without .vm files (--pipeline)
+	private       boolean      pipeline        = false;
+	// also write the .vm files when translating straight to Hack assembly (--emit-vm)
+	private       boolean      emitVM          = false;
+	// build every distinct string constant of a class only once (--string-pool)
+	private       boolean      stringPool      = false;
+	// the passes run between parsing and code generation (--passes=name,...)
+	private       String       passes          = Pass.DEFAULT_PASSES;
+	// write the tree of every class after the passes as X.ir (--dump-ir)
+	private       boolean      dumpIR          = false;
+	// the options of the generated Hack assembly (--calls=, --peephole, ..., see TranslatorOptions)
+	private final TranslatorOptions translatorOptions = new TranslatorOptions();
+	// the ROM words the shared routines saved in the whole program
+	private       int          romWordsSaved   = 0;
+	// the signatures of every class of the program, built before any class is compiled
+	private       ClassIndex   classIndex;
+	// the assembly of the whole program in pipeline mode
+	private       BufferedWriter programWriter;
+
+	public Compiler(PrintStream out) {
+		this.out = out;
+	}
 
 	public static void main(String[] args) throws IOException {
-		if (args.length < 1) {
-			error("please provide a file or directory argument");
+		try {
+			if (args.length > 0 && args[0].startsWith("--server")) {
+				Server.main(args);
+			} else {
+				new Compiler(System.out).compile(args);
+			}
+		} catch (Error e) {
+			error(e.getMessage());
+		}
+	}
+
+	/*
+	compile the file or directory given in args
+	errors are reported by throwing an Error with the message instead of exiting, so that
+	a long-running Server can serve more requests afterwards
+	*/
+	public void compile(String[] args) throws IOException {
+		String inputPath = null;
+		for (String arg : args) {
+			if (arg.equals("--stats")) {
+				printStatistics = true;
+			} else if (arg.startsWith("--threads=")) {
+				threads = parsePositiveInteger(arg.substring("--threads=".length()));
+			} else if (arg.equals("--virtual-threads")) {
+				virtualThreads = true;
+			} else if (arg.equals("--incremental")) {
+				incremental = true;
+			} else if (arg.equals("--pipeline")) {
+				pipeline = true;
+			} else if (arg.equals("--emit-vm")) {
+				emitVM = true;
+			} else if (arg.equals("--string-pool")) {
+				stringPool = true;
+			} else if (arg.startsWith("--passes=")) {
+				passes = arg.substring("--passes=".length());
+				// unknown names are reported before anything is compiled
+				Pass.parse(passes);
+			} else if (arg.equals("--dump-ir")) {
+				dumpIR = true;
+			} else if (translatorOptions.parse(arg)) {
+				// an option of the generated Hack assembly
+			} else if (arg.startsWith("--")) {
+				throw new Error("unknown option " + arg);
+			} else {
+				inputPath = arg;
+			}
+		}
+
+		if (inputPath == null) {
+			throw new Error("please provide a file or directory argument");
+		}
+
+		if (emitVM && !pipeline) {
+			throw new Error("--emit-vm requires --pipeline");
+		}
+		if (translatorOptions.changedOption() != null && !pipeline) {
+			throw new Error(translatorOptions.changedOption() + " requires --pipeline");
+		}
+		if (incremental && pipeline) {
+			throw new Error("--incremental can not be combined with --pipeline");
 		}
 
-		File inputFileOrDirectory = new File(args[0]);
+		File inputFileOrDirectory = new File(inputPath);
 		if (!inputFileOrDirectory.exists()) {
-			error("the specified file or directory does not exist");
+			throw new Error("the specified file or directory does not exist");
 		}
 
-		// delete all files in the output directory
-		for (File f : new File(String.valueOf(OUTPUT_DIRECTORY)).listFiles()) {
-			f.delete();
+		if (!incremental) {
+			// delete all files in the output directory
+			for (File f : new File(String.valueOf(OUTPUT_DIRECTORY)).listFiles()) {
+				if (!f.getName().equals(CLASS_INDEX_FILE)) {
+					f.delete();
+				}
+			}
 		}
 
+		List<File> inputFiles = new ArrayList<>();
 		if (inputFileOrDirectory.isDirectory()) {
+			// sorted, so that output and error reporting do not depend on the directory order
 			List<File> filesClassesList = Arrays.asList(inputFileOrDirectory.listFiles());
+			filesClassesList.sort(Comparator.comparing(File::getName));
 			for (File currentFile : filesClassesList) {
 				if (currentFile.getName().endsWith(".jack")) {
-					String outputFileName = currentFile.getName().replace(".jack", ".vm");
-					File outputFile = new File(String.valueOf(Paths.get(OUTPUT_DIRECTORY.toString(), outputFileName)));
-					try (Analyzer analyzer = new Analyzer(currentFile, outputFile)) {
-						analyzer.analyze();
-					}
+					inputFiles.add(currentFile);
 				}
 			}
 		} else {
 			if (!inputFileOrDirectory.getName().endsWith(".jack")) {
-				error("the specified file is invalid");
+				throw new Error("the specified file is invalid");
+			}
+			inputFiles.add(inputFileOrDirectory);
+		}
+
+		// every class is indexed, also the ones that are up to date and not compiled again
+		classIndex = ClassIndex.build(inputFiles,
+									  inputFileOrDirectory.isDirectory() ? vmFiles(inputFileOrDirectory) : List.of(),
+									  indexPasses(), OUTPUT_DIRECTORY.resolve(CLASS_INDEX_FILE).toFile(),
+									  VERSION + " --passes=" + passes);
+		if (printStatistics) {
+			out.println(classIndex.statistics());
+		}
+
+		if (incremental) {
+			inputFiles = removeUpToDate(inputFiles, inputFileOrDirectory.isDirectory());
+		}
+
+		String programName = inputFileOrDirectory.getName().replace(".jack", "") + ".asm";
+		if (pipeline) {
+			programWriter = new BufferedWriter(new FileWriter(OUTPUT_DIRECTORY.resolve(programName).toFile()));
+		}
+		try {
+			if (pipeline) {
+				programWriter.write(bootstrap());
+			}
+			if (threads > 1 || virtualThreads) {
+				compileConcurrently(inputFiles);
+			} else {
+				for (File inputFile : inputFiles) {
+					try {
+						report(inputFile, compileFile(inputFile));
+					} catch (Error e) {
+						compileError(inputFile, e);
+					}
+				}
+			}
+			if (pipeline && inputFileOrDirectory.isDirectory()) {
+				translateVMFiles(inputFileOrDirectory);
+			}
+		} finally {
+			if (pipeline) {
+				programWriter.close();
+			}
+		}
+		if ((translatorOptions.sharedCalls() || translatorOptions.sharedComparisons()) && printStatistics) {
+			out.printf("%s: %d ROM words saved by the shared routines%n", programName, romWordsSaved);
+		}
+
+		if (incremental) {
+			compileCache.save();
+			out.println(compileCache.statistics());
+		}
+	}
+
+	/*
+	return the input files that need to be compiled
+	when compiling a directory, outputs of classes that no longer exist are deleted
+	*/
+	private List<File> removeUpToDate(List<File> inputFiles, boolean wholeDirectory) throws IOException {
+		compileCache = new CompileCache(OUTPUT_DIRECTORY.resolve(".compile-cache").toFile(), fingerprint());
+
+		List<File> outdatedFiles = new ArrayList<>();
+		List<String> outputFileNames = new ArrayList<>();
+		for (File inputFile : inputFiles) {
+			File outputFile = outputFile(inputFile);
+			outputFileNames.add(outputFile.getName());
+			if (!compileCache.isUpToDate(inputFile, outputFile)) {
+				outdatedFiles.add(inputFile);
+			}
+		}
+
+		if (wholeDirectory) {
+			for (File f : new File(String.valueOf(OUTPUT_DIRECTORY)).listFiles()) {
+				if (f.getName().endsWith(".vm") && !outputFileNames.contains(f.getName())) {
+					f.delete();
+					compileCache.remove(f.getName().replace(".vm", ".jack"));
+				}
+			}
+		}
+		return outdatedFiles;
+	}
+
+	/*
+	the compiler version and every option that changes the generated code
+	calls, and inlined subroutines, are compiled from the signatures of the classes they call,
+	so a change to any signature recompiles every class
+	*/
+	private String fingerprint() {
+		return VERSION + (stringPool ? " --string-pool" : "") + " --passes=" + passes + " index "
+			   + classIndex.digest();
+	}
+
+	// the passes run before the class index is built, all but inline which uses the index
+	private List<Pass> indexPasses() {
+		List<Pass> indexPasses = Pass.parse(passes);
+		indexPasses.removeIf(pass -> pass instanceof Inliner);
+		return indexPasses;
+	}
+
+	/*
+	every class has its own tokenizer, symbol table and output file, so classes can be
+	compiled independently
+	results are collected in input order: statistics are printed in that order, and if
+	several classes fail, the first failing one in input order is the one reported
+	*/
+	private void compileConcurrently(List<File> inputFiles) throws IOException {
+		ExecutorService executor = newExecutor();
+		List<Future<CompiledClass>> results = new ArrayList<>();
+		for (File inputFile : inputFiles) {
+			results.add(executor.submit(() -> compileFile(inputFile)));
+		}
+
+		try {
+			for (int i = 0; i < inputFiles.size(); i++) {
+				try {
+					report(inputFiles.get(i), results.get(i).get());
+				} catch (ExecutionException e) {
+					executor.shutdownNow();
+					if (e.getCause() instanceof IOException ioException) {
+						throw ioException;
+					}
+					compileError(inputFiles.get(i), e.getCause());
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new Error("interrupted");
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	private ExecutorService newExecutor() {
+		if (!virtualThreads) {
+			return Executors.newFixedThreadPool(threads);
+		}
+		// virtual threads are only available from Java 21, the build targets an older release
+		try {
+			return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch (ReflectiveOperationException e) {
+			throw new Error("virtual threads require Java 21 or newer, use --threads=N instead");
+		}
+	}
+
+	/*
+	the statistics and warnings of a compiled class, and its Hack assembly and the ROM words its
+	calls and returns saved in pipeline mode
+	*/
+	private record CompiledClass(String statistics, List<String> warnings, String assembly, int romWordsSaved) {
+	}
+
+	private CompiledClass compileFile(File inputFile) throws IOException {
+		if (!pipeline) {
+			try (Analyzer analyzer = new Analyzer(inputFile, outputFile(inputFile))) {
+				return analyze(analyzer, inputFile);
+			}
+		}
+
+		// every class is translated into its own buffer, so that classes compiled
+		// concurrently still end up in the program in input order
+		StringWriter assembly = new StringWriter();
+		CodeWriter codeWriter = new CodeWriter(assembly);
+		codeWriter.configure(translatorOptions);
+		codeWriter.setCurrentFileName(outputFile(inputFile).getName());
+		CompiledClass compiledClass;
+		try (Analyzer analyzer = new Analyzer(inputFile, emitVM ? outputFile(inputFile) : null, codeWriter)) {
+			compiledClass = analyze(analyzer, inputFile);
+		}
+		// closing the analyzer flushes the code writer
+		String statistics = compiledClass.statistics();
+		if (codeWriter.statistics() != null) {
+			statistics += ", " + codeWriter.statistics();
+		}
+		return new CompiledClass(statistics, compiledClass.warnings(), assembly.toString(),
+								 codeWriter.romWordsSaved());
+	}
+
+	// compile with the options that affect the generated code
+	private CompiledClass analyze(Analyzer analyzer, File inputFile) throws IOException {
+		analyzer.codeGenerator().setStringPool(stringPool);
+		List<Pass> classPasses = Pass.parse(passes);
+		for (Pass pass : classPasses) {
+			if (pass instanceof Inliner inliner) {
+				inliner.setClassIndex(classIndex);
+			}
+		}
+		analyzer.setPasses(classPasses);
+		analyzer.setClassIndex(classIndex);
+		if (dumpIR) {
+			analyzer.setIrOutputFile(irOutputFile(inputFile));
+		}
+		analyzer.analyze();
+		return new CompiledClass(analyzer.statistics(), analyzer.warnings(), null, 0);
+	}
+
+	// the code that sets up the stack and calls Sys.init, and the shared routines
+	private String bootstrap() throws IOException {
+		StringWriter assembly = new StringWriter();
+		try (CodeWriter codeWriter = new CodeWriter(assembly)) {
+			codeWriter.configure(translatorOptions);
+			codeWriter.writeInit();
+			romWordsSaved += codeWriter.romWordsSaved();
+		}
+		return assembly.toString();
+	}
+
+	/*
+	.vm files that are part of the program without a Jack source, such as an implementation
+	of the OS, are translated after the compiled classes
+	a .vm file next to its Jack source is an old compiler output and is skipped
+	*/
+	private void translateVMFiles(File inputDirectory) throws IOException {
+		for (File vmFile : vmFiles(inputDirectory)) {
+			StringWriter assembly = new StringWriter();
+			try (CodeWriter codeWriter = new CodeWriter(assembly)) {
+				codeWriter.configure(translatorOptions);
+				Translator.parseWrite(codeWriter, vmFile);
+				romWordsSaved += codeWriter.romWordsSaved();
 			}
-			String outputFileName = inputFileOrDirectory.getName().replace(".jack", ".vm");
-			File outputFile = new File(String.valueOf(Paths.get(OUTPUT_DIRECTORY.toString(), outputFileName)));
+			programWriter.write(assembly.toString());
+		}
+	}
+
+	// the .vm files of the directory without a Jack source
+	private static List<File> vmFiles(File inputDirectory) {
+		List<File> vmFiles = new ArrayList<>(Arrays.asList(inputDirectory.listFiles()));
+		vmFiles.removeIf(f -> !f.getName().endsWith(".vm")
+							  || new File(inputDirectory, f.getName().replace(".vm", ".jack")).exists());
+		vmFiles.sort(Comparator.comparing(File::getName));
+		return vmFiles;
+	}
+
+	private File outputFile(File inputFile) {
+		String outputFileName = inputFile.getName().replace(".jack", ".vm");
+		return new File(String.valueOf(Paths.get(OUTPUT_DIRECTORY.toString(), outputFileName)));
+	}
+
+	private File irOutputFile(File inputFile) {
+		return OUTPUT_DIRECTORY.resolve(inputFile.getName().replace(".jack", ".ir")).toFile();
+	}
+
+	private void report(File inputFile, CompiledClass compiledClass) throws IOException {
+		if (incremental) {
+			compileCache.compiled(inputFile);
+		}
+		if (pipeline) {
+			programWriter.write(compiledClass.assembly());
+			romWordsSaved += compiledClass.romWordsSaved();
+		}
+		for (String warning : compiledClass.warnings()) {
+			out.printf("%s: warning: %s%n", inputFile.getName(), warning);
+		}
+		if (printStatistics) {
+			out.println(compiledClass.statistics());
+		}
+	}
+
+	private void compileError(File inputFile, Throwable cause) throws IOException {
+		if (incremental) {
+			// keep the entries of the classes that did compile
+			compileCache.save();
+		}
+		String message = cause.getMessage() != null ? cause.getMessage() : cause.toString();
+		throw new Error(String.format("%s: %s", inputFile.getName(), message));
+	}
 
-			try (Analyzer analyzer = new Analyzer(inputFileOrDirectory, outputFile)) {
-				analyzer.analyze();
+	private static int parsePositiveInteger(String value) {
+		try {
+			int number = Integer.parseInt(value);
+			if (number > 0) {
+				return number;
 			}
+		} catch (NumberFormatException ignored) {
 		}
+		throw new Error("invalid number " + value);
 	}
 
 	private static void error(String errorMessage) {
@@ -0,0 +1,165 @@
+import enums.Symbol;
+
+/*
+constant folding with the 16-bit two's complement arithmetic of the Hack platform, and
+algebraic identities that only need one constant operand (pass fold)
+expressions are folded bottom up, so the operands of unary and binary are already folded
+*/
+public class ConstantFolder extends TreeRewriter {
+
+	@Override
+	protected Expression rewrite(Expression expression) {
+		if (expression instanceof Expression.Unary unary) {
+			return unary(unary.operator(), unary.operand());
+		} else if (expression instanceof Expression.Binary binary) {
+			return binary(binary.operator(), binary.left(), binary.right());
+		}
+		return expression;
+	}
+
+	public static Expression unary(Symbol operator, Expression operand) {
+		if (operand instanceof Expression.Constant constant) {
+			return new Expression.Constant(operator == Symbol.MINUS ? wrap(-constant.value()) : ~constant.value());
+		}
+		// --x and ~~x
+		if (operand instanceof Expression.Unary unary && unary.operator() == operator) {
+			return unary.operand();
+		}
+		return new Expression.Unary(operator, operand);
+	}
+
+	public static Expression binary(Symbol operator, Expression left, Expression right) {
+		if (left instanceof Expression.Constant l && right instanceof Expression.Constant r) {
+			Integer value = evaluate(operator, l.value(), r.value());
+			if (value != null) {
+				return new Expression.Constant(value);
+			}
+		}
+		Expression simplified = simplify(operator, left, right);
+		return simplified != null ? simplified : new Expression.Binary(operator, left, right);
+	}
+
+	// the value of a constant operation, or null if it must be left to run time
+	private static Integer evaluate(Symbol operator, int left, int right) {
+		return switch (operator) {
+			case PLUS -> wrap(left + right);
+			case MINUS -> wrap(left - right);
+			case ASTERISK -> wrap(left * right);
+			// division by zero is a run time error of the OS, and Math.divide takes the
+			// absolute value of its operands, which does not exist for -32768
+			case SLASH -> right == 0 || left == -32768 || right == -32768 ? null : left / right;
+			case AMPERSAND -> left & right;
+			case PIPE -> left | right;
+			// the translator compares by subtracting, so a comparison whose difference
+			// overflows is left to run time to give the same result
+			case LESS_THAN -> overflows(left - right) ? null : truth(left < right);
+			case GREATER_THAN -> overflows(left - right) ? null : truth(left > right);
+			case EQUALS -> truth(left == right);
+			default -> null;
+		};
+	}
+
+	// the simplified operation if one of the identities applies, otherwise null
+	private static Expression simplify(Symbol operator, Expression left, Expression right) {
+		switch (operator) {
+			case PLUS -> {
+				if (isConstant(right, 0)) {
+					return left;
+				}
+				if (isConstant(left, 0)) {
+					return right;
+				}
+				return reassociate(operator, left, right);
+			}
+			case MINUS -> {
+				if (isConstant(right, 0)) {
+					return left;
+				}
+				if (isConstant(left, 0)) {
+					return unary(Symbol.MINUS, right);
+				}
+				return reassociate(operator, left, right);
+			}
+			case ASTERISK -> {
+				if (isConstant(right, 1)) {
+					return left;
+				}
+				if (isConstant(left, 1)) {
+					return right;
+				}
+				if (isConstant(right, -1)) {
+					return unary(Symbol.MINUS, left);
+				}
+				if (isConstant(left, -1)) {
+					return unary(Symbol.MINUS, right);
+				}
+				if (isConstant(right, 0) && Expression.isPure(left) || isConstant(left, 0) && Expression.isPure(right)) {
+					return new Expression.Constant(0);
+				}
+			}
+			case SLASH -> {
+				if (isConstant(right, 1)) {
+					return left;
+				}
+			}
+			case AMPERSAND -> {
+				if (isConstant(right, -1)) {
+					return left;
+				}
+				if (isConstant(left, -1)) {
+					return right;
+				}
+				if (isConstant(right, 0) && Expression.isPure(left) || isConstant(left, 0) && Expression.isPure(right)) {
+					return new Expression.Constant(0);
+				}
+			}
+			case PIPE -> {
+				if (isConstant(right, 0)) {
+					return left;
+				}
+				if (isConstant(left, 0)) {
+					return right;
+				}
+				if (isConstant(right, -1) && Expression.isPure(left) || isConstant(left, -1) && Expression.isPure(right)) {
+					return new Expression.Constant(-1);
+				}
+			}
+			default -> {
+			}
+		}
+		return null;
+	}
+
+	/*
+	(x + c1) + c2 becomes x + (c1 + c2), and likewise with subtractions, so that constant
+	offsets written at different places of an address computation are added at compile time
+	*/
+	private static Expression reassociate(Symbol operator, Expression left, Expression right) {
+		if (right instanceof Expression.Constant outer
+			&& left instanceof Expression.Binary inner
+			&& (inner.operator() == Symbol.PLUS || inner.operator() == Symbol.MINUS)
+			&& inner.right() instanceof Expression.Constant innerConstant) {
+			int offset = (inner.operator() == Symbol.PLUS ? innerConstant.value() : -innerConstant.value())
+						 + (operator == Symbol.PLUS ? outer.value() : -outer.value());
+			return binary(Symbol.PLUS, inner.left(), new Expression.Constant(wrap(offset)));
+		}
+		return null;
+	}
+
+	private static boolean isConstant(Expression expression, int value) {
+		return expression instanceof Expression.Constant constant && constant.value() == value;
+	}
+
+	private static int truth(boolean value) {
+		return value ? -1 : 0;
+	}
+
+	private static boolean overflows(int value) {
+		return value != wrap(value);
+	}
+
+	// the 16-bit two's complement value of an int
+	public static int wrap(int value) {
+		return (short) value;
+	}
+}
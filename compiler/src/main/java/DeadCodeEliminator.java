@@ -0,0 +1,59 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+removes code that can never run (pass dce): the statements after a return or after a loop
+that never exits, the branch of an if that a constant condition never takes, and loops
+whose constant condition is false
+run it after fold, so that conditions such as 1 = 1 are constants
+*/
+public class DeadCodeEliminator extends TreeRewriter {
+
+	// statements removed from the classes run through this pass so far
+	private int removedStatements;
+
+	@Override
+	protected List<Statement> rewriteStatements(List<Statement> statements) {
+		List<Statement> reachable = new ArrayList<>(statements.size());
+		for (int i = 0; i < statements.size(); i++) {
+			int size = reachable.size();
+			Statement statement = rewriteStatement(statements.get(i));
+			if (statement instanceof Statement.If branch && branch.condition() instanceof Expression.Constant constant) {
+				// only the branch that is taken is kept, without any test
+				boolean taken = Statement.isTrue(constant);
+				reachable.addAll(taken ? branch.thenStatements() : branch.elseStatements());
+				removedStatements += count(taken ? branch.elseStatements() : branch.thenStatements());
+			} else if (statement instanceof Statement.While loop && loop.condition() instanceof Expression.Constant constant
+					   && !Statement.isTrue(constant)) {
+				removedStatements += count(List.of(statement));
+			} else {
+				reachable.add(statement);
+			}
+
+			if (!Statement.canCompleteNormally(reachable.subList(size, reachable.size()))) {
+				removedStatements += count(statements.subList(i + 1, statements.size()));
+				break;
+			}
+		}
+		return reachable;
+	}
+
+	// the number of statements, counting the ones nested in if and while
+	private static int count(List<Statement> statements) {
+		int count = 0;
+		for (Statement statement : statements) {
+			count++;
+			if (statement instanceof Statement.If branch) {
+				count += count(branch.thenStatements()) + count(branch.elseStatements());
+			} else if (statement instanceof Statement.While loop) {
+				count += count(loop.body());
+			}
+		}
+		return count;
+	}
+
+	@Override
+	public String statistics() {
+		return String.format("%d unreachable statements dropped", removedStatements);
+	}
+}
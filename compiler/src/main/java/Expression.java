@@ -0,0 +1,71 @@
+import java.util.List;
+
+import enums.Symbol;
+
+/*
+tree of a Jack expression, built by the CompilationEngine before any VM code is written
+so that it can be simplified first (see ConstantFolder)
+*/
+public interface Expression {
+
+	// an integer constant, or true, false and null; values are 16-bit signed
+	record Constant(int value) implements Expression {}
+
+	record StringConstant(String value) implements Expression {}
+
+	// the this keyword
+	record This() implements Expression {}
+
+	record Variable(String name, String segment, int index) implements Expression {}
+
+	// array[index]
+	record ArrayElement(Variable array, Expression index) implements Expression {}
+
+	// for method calls the object is the first argument
+	record Call(String function, List<Expression> arguments) implements Expression {}
+
+	// operator is MINUS or TILDE
+	record Unary(Symbol operator, Expression operand) implements Expression {}
+
+	record Binary(Symbol operator, Expression left, Expression right) implements Expression {}
+
+	/*
+	true if the value of the expression is known to be a boolean, 0 or -1: a comparison, true
+	or false, and ~, & and | of booleans
+	a condition that is not known to be boolean is tested with not and if-goto, so that only
+	-1 is true (see Statement.isTrue)
+	*/
+	static boolean isBoolean(Expression expression) {
+		if (expression instanceof Constant constant) {
+			return constant.value() == 0 || constant.value() == -1;
+		} else if (expression instanceof Unary unary) {
+			return unary.operator() == Symbol.TILDE && isBoolean(unary.operand());
+		} else if (expression instanceof Binary binary) {
+			return switch (binary.operator()) {
+				case LESS_THAN, GREATER_THAN, EQUALS -> true;
+				case AMPERSAND, PIPE -> isBoolean(binary.left()) && isBoolean(binary.right());
+				default -> false;
+			};
+		}
+		return false;
+	}
+
+	/*
+	true if evaluating the expression has no effect besides its value, so that it can be
+	dropped when the value is not needed
+	*/
+	static boolean isPure(Expression expression) {
+		if (expression instanceof Constant || expression instanceof This || expression instanceof Variable) {
+			return true;
+		} else if (expression instanceof ArrayElement arrayElement) {
+			return isPure(arrayElement.index());
+		} else if (expression instanceof Unary unary) {
+			return isPure(unary.operand());
+		} else if (expression instanceof Binary binary) {
+			// multiply and divide are OS calls, divide can fail
+			return binary.operator() != Symbol.SLASH && isPure(binary.left()) && isPure(binary.right());
+		}
+		// calls, and string constants which allocate a new string
+		return false;
+	}
+}
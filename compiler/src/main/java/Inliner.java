@@ -0,0 +1,220 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import enums.Keyword;
+import enums.Symbol;
+
+/*
+inlines calls to the trivial subroutines of the program (pass inline)
+a subroutine is trivial if its body is one of
+	return e;                    e made of constants, fields and statics with + - & | < > = - ~
+	let field = parameter; return;
+the first covers getters such as return x; and return x + width; and subroutines that
+return a constant; the second covers setters with a single parameter
+the bodies of the trivial subroutines of every class being compiled are recorded in the
+ClassIndex before any class is compiled, so that calls to other classes are inlined too
+a field of this is accessed through the this segment, a field of another object as an
+element of that object, through the that segment; statics are only inlined within their class,
+as the static segment of a VM file is private to it
+*/
+public class Inliner extends TreeRewriter {
+
+	// null when no index was built, nothing is inlined then
+	private       ClassIndex           classIndex;
+	private       String               currentClassName;
+	// number of inlined calls by called function
+	private final Map<String, Integer> inlinedCalls = new TreeMap<>();
+
+	public void setClassIndex(ClassIndex classIndex) {
+		this.classIndex = classIndex;
+	}
+
+	@Override
+	public ClassDeclaration run(ClassDeclaration classDeclaration) {
+		currentClassName = classDeclaration.name();
+		return super.run(classDeclaration);
+	}
+
+	@Override
+	protected List<Statement> rewriteStatements(List<Statement> statements) {
+		List<Statement> rewritten = new ArrayList<>(statements.size());
+		for (Statement statement : statements) {
+			statement = rewriteStatement(statement);
+			// a do whose call was inlined to a value without effects does nothing
+			if (statement instanceof Statement.Do call && !(call.expression() instanceof Expression.Call)
+				&& Expression.isPure(call.expression())) {
+				continue;
+			}
+			rewritten.add(statement);
+		}
+		return rewritten;
+	}
+
+	@Override
+	protected Statement rewriteStatement(Statement statement) {
+		statement = super.rewriteStatement(statement);
+		// setters return nothing, so they are only inlined where the value is discarded
+		if (statement instanceof Statement.Do call && call.expression() instanceof Expression.Call setterCall) {
+			ClassIndex.Signature callee = callee(setterCall);
+			Expression.Variable field = callee != null ? callee.inlineField() : null;
+			if (field != null) {
+				Expression value = setterCall.arguments().get(setterCall.arguments().size() - 1);
+				if (field.segment().equals("static")) {
+					return inlined(callee, new Statement.Let(field, null, value));
+				}
+				Expression object = setterCall.arguments().get(0);
+				if (object instanceof Expression.This) {
+					return inlined(callee, new Statement.Let(field, null, value));
+				} else if (object instanceof Expression.Variable variable) {
+					return inlined(callee, new Statement.Let(variable, new Expression.Constant(field.index()), value));
+				}
+			}
+		}
+		return statement;
+	}
+
+	@Override
+	protected Expression rewrite(Expression expression) {
+		if (!(expression instanceof Expression.Call call)) {
+			return expression;
+		}
+		ClassIndex.Signature callee = callee(call);
+		Expression value = callee != null ? callee.inlineValue() : null;
+		if (value == null) {
+			return expression;
+		}
+		// the arguments are not used, they can only be dropped if evaluating them does nothing
+		for (Expression argument : call.arguments()) {
+			if (!Expression.isPure(argument)) {
+				return expression;
+			}
+		}
+		Expression object = callee.kind() == Keyword.METHOD ? call.arguments().get(0) : null;
+		Expression substituted = substitute(value, object);
+		if (substituted == null) {
+			return expression;
+		}
+		inlinedCalls.merge(callee.name(), 1, Integer::sum);
+		return substituted;
+	}
+
+	private Statement inlined(ClassIndex.Signature callee, Statement statement) {
+		inlinedCalls.merge(callee.name(), 1, Integer::sum);
+		return statement;
+	}
+
+	// the trivial subroutine called, or null if the call can not be inlined here
+	private ClassIndex.Signature callee(Expression.Call call) {
+		ClassIndex.Signature callee = classIndex != null ? classIndex.signature(call.function()) : null;
+		if (callee == null || callee.inlineValue() == null && callee.inlineField() == null
+			|| usesStatics(callee) && !call.function().startsWith(currentClassName + ".")) {
+			return null;
+		}
+		// a method called as a function, or with the wrong number of arguments, is left to fail as before
+		return call.arguments().size() == callee.argumentCount() ? callee : null;
+	}
+
+	/*
+	the value of e with the fields of this read from object instead, or null if object is not
+	a variable or this
+	*/
+	private static Expression substitute(Expression e, Expression object) {
+		if (e instanceof Expression.Variable field && field.segment().equals("this")) {
+			if (object instanceof Expression.This) {
+				return field;
+			} else if (object instanceof Expression.Variable variable) {
+				return new Expression.ArrayElement(variable, new Expression.Constant(field.index()));
+			}
+			return null;
+		} else if (e instanceof Expression.Unary unary) {
+			Expression operand = substitute(unary.operand(), object);
+			return operand != null ? new Expression.Unary(unary.operator(), operand) : null;
+		} else if (e instanceof Expression.Binary binary) {
+			Expression left = substitute(binary.left(), object);
+			Expression right = substitute(binary.right(), object);
+			return left != null && right != null ? new Expression.Binary(binary.operator(), left, right) : null;
+		}
+		return e;
+	}
+
+	/*
+	e of return e; (0 for return;) if that is the whole body and e is simple enough, so that
+	calls can be replaced with e, otherwise null
+	*/
+	public static Expression inlineValue(SubroutineDeclaration subroutine) {
+		if (subroutine.kind() == Keyword.CONSTRUCTOR || subroutine.body().size() != 1 || !(subroutine.body().get(0) instanceof Statement.Return ret)) {
+			return null;
+		}
+		Expression value = ret.value() != null ? ret.value() : new Expression.Constant(0);
+		return isSimple(value, subroutine.kind()) ? value : null;
+	}
+
+	// the field of let field = parameter; return; if that is the whole body, otherwise null
+	public static Expression.Variable inlineField(SubroutineDeclaration subroutine) {
+		// the parameter follows this in a method
+		int parameterIndex = subroutine.kind() == Keyword.METHOD ? 1 : 0;
+		if (subroutine.kind() != Keyword.CONSTRUCTOR
+			&& subroutine.parameterCount() == 1
+			&& subroutine.body().size() == 2
+			&& subroutine.body().get(0) instanceof Statement.Let let
+			&& let.index() == null
+			&& isField(let.target(), subroutine.kind())
+			&& let.value() instanceof Expression.Variable parameter
+			&& parameter.segment().equals("argument") && parameter.index() == parameterIndex
+			&& subroutine.body().get(1) instanceof Statement.Return ret && ret.value() == null) {
+			return let.target();
+		}
+		return null;
+	}
+
+	private static boolean isSimple(Expression e, Keyword kind) {
+		if (e instanceof Expression.Constant) {
+			return true;
+		} else if (e instanceof Expression.Variable variable) {
+			return isField(variable, kind);
+		} else if (e instanceof Expression.Unary unary) {
+			return isSimple(unary.operand(), kind);
+		} else if (e instanceof Expression.Binary binary) {
+			// multiply and divide are calls themselves
+			return binary.operator() != Symbol.ASTERISK && binary.operator() != Symbol.SLASH
+				   && isSimple(binary.left(), kind) && isSimple(binary.right(), kind);
+		}
+		return false;
+	}
+
+	// statics, and fields when there is a this to read them from
+	private static boolean isField(Expression.Variable variable, Keyword kind) {
+		return variable.segment().equals("static") || variable.segment().equals("this") && kind == Keyword.METHOD;
+	}
+
+	private static boolean usesStatics(ClassIndex.Signature subroutine) {
+		Expression.Variable field = subroutine.inlineField();
+		return field != null ? field.segment().equals("static") : usesStatics(subroutine.inlineValue());
+	}
+
+	private static boolean usesStatics(Expression e) {
+		if (e instanceof Expression.Variable variable) {
+			return variable.segment().equals("static");
+		} else if (e instanceof Expression.Unary unary) {
+			return usesStatics(unary.operand());
+		} else if (e instanceof Expression.Binary binary) {
+			return usesStatics(binary.left()) || usesStatics(binary.right());
+		}
+		return false;
+	}
+
+	@Override
+	public String statistics() {
+		int total = inlinedCalls.values().stream().mapToInt(Integer::intValue).sum();
+		if (total == 0) {
+			return "0 calls inlined";
+		}
+		StringBuilder calls = new StringBuilder();
+		for (Map.Entry<String, Integer> entry : inlinedCalls.entrySet()) {
+			calls.append(calls.length() > 0 ? ", " : "").append(entry.getKey()).append(" x").append(entry.getValue());
+		}
+		return String.format("%d calls inlined (%s)", total, calls);
+	}
+}
@@ -0,0 +1,103 @@
+import java.util.List;
+
+/*
+text dump of the tree of a class after the passes (Compiler --dump-ir), written as X.ir next
+to the .vm files
+statements are written in Jack syntax, expressions fully parenthesized, variables as
+segment[index]:name, and calls with their VM function name and every argument, so the
+object of a method call is the first one
+*/
+public class IrPrinter {
+	private final StringBuilder text = new StringBuilder();
+
+	private IrPrinter() {
+	}
+
+	public static String print(ClassDeclaration classDeclaration) {
+		IrPrinter printer = new IrPrinter();
+		printer.printClass(classDeclaration);
+		return printer.text.toString();
+	}
+
+	private void printClass(ClassDeclaration classDeclaration) {
+		line(0, String.format("class %s: %d statics, %d fields", classDeclaration.name(),
+							  classDeclaration.staticCount(), classDeclaration.fieldCount()));
+		for (SubroutineDeclaration subroutine : classDeclaration.subroutines()) {
+			line(0, "");
+			line(0, String.format("%s %s %s: %d parameters, %d locals", subroutine.kind().lexeme(),
+								  subroutine.returnType(), subroutine.name(), subroutine.parameterCount(),
+								  subroutine.localCount()));
+			printStatements(1, subroutine.body());
+		}
+	}
+
+	private void printStatements(int depth, List<Statement> statements) {
+		for (Statement statement : statements) {
+			printStatement(depth, statement);
+		}
+	}
+
+	private void printStatement(int depth, Statement statement) {
+		if (statement instanceof Statement.Let let) {
+			String target = let.index() != null
+							? String.format("%s[%s]", expression(let.target()), expression(let.index()))
+							: expression(let.target());
+			line(depth, String.format("let %s = %s;", target, expression(let.value())));
+		} else if (statement instanceof Statement.If branch) {
+			line(depth, String.format("if %s {", condition(branch.condition())));
+			printStatements(depth + 1, branch.thenStatements());
+			if (!branch.elseStatements().isEmpty()) {
+				line(depth, "} else {");
+				printStatements(depth + 1, branch.elseStatements());
+			}
+			line(depth, "}");
+		} else if (statement instanceof Statement.While loop) {
+			line(depth, String.format("while %s {", condition(loop.condition())));
+			printStatements(depth + 1, loop.body());
+			line(depth, "}");
+		} else if (statement instanceof Statement.Do call) {
+			line(depth, String.format("do %s;", expression(call.expression())));
+		} else if (statement instanceof Statement.Return ret) {
+			line(depth, ret.value() != null ? String.format("return %s;", expression(ret.value())) : "return;");
+		}
+	}
+
+	// conditions are always parenthesized, like in Jack
+	private static String condition(Expression condition) {
+		String text = expression(condition);
+		return condition instanceof Expression.Binary ? text : "(" + text + ")";
+	}
+
+	private static String expression(Expression expression) {
+		if (expression instanceof Expression.Constant constant) {
+			return String.valueOf(constant.value());
+		} else if (expression instanceof Expression.StringConstant stringConstant) {
+			return '"' + stringConstant.value() + '"';
+		} else if (expression instanceof Expression.This) {
+			return "this";
+		} else if (expression instanceof Expression.Variable variable) {
+			return String.format("%s[%d]:%s", variable.segment(), variable.index(), variable.name());
+		} else if (expression instanceof Expression.ArrayElement arrayElement) {
+			return String.format("%s[%s]", expression(arrayElement.array()), expression(arrayElement.index()));
+		} else if (expression instanceof Expression.Call call) {
+			StringBuilder arguments = new StringBuilder();
+			for (Expression argument : call.arguments()) {
+				if (arguments.length() > 0) {
+					arguments.append(", ");
+				}
+				arguments.append(expression(argument));
+			}
+			return String.format("%s(%s)", call.function(), arguments);
+		} else if (expression instanceof Expression.Unary unary) {
+			return unary.operator().lexeme() + expression(unary.operand());
+		} else if (expression instanceof Expression.Binary binary) {
+			return String.format("(%s %s %s)", expression(binary.left()), binary.operator().lexeme(),
+								 expression(binary.right()));
+		}
+		throw new Error("unknown expression " + expression);
+	}
+
+	private void line(int depth, String line) {
+		text.append("\t".repeat(depth)).append(line).append(System.lineSeparator());
+	}
+}
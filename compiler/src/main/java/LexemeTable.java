@@ -0,0 +1,104 @@
+import java.util.Arrays;
+
+/*
+interning table for identifier and keyword lexemes
+every distinct lexeme is stored once in a shared char buffer and gets a dense id,
+so repeated lexemes cost no allocation and can be compared by id
+the keywords passed to the constructor are interned first and get the ids 0..n-1
+*/
+public class LexemeTable {
+
+	private char[]   chars   = new char[1024];
+	private int      charCount;
+	private int[]    starts  = new int[64];
+	private int[]    lengths = new int[64];
+	private String[] strings = new String[64];
+	private int      size;
+	// open addressing hash table of id + 1, 0 marks an empty slot
+	private int[]    slots   = new int[128];
+
+	public LexemeTable(String... keywords) {
+		for (String keyword : keywords) {
+			intern(keyword.toCharArray(), 0, keyword.length());
+		}
+	}
+
+	/*
+	return the id of the lexeme in source[offset, offset + length)
+	adding it to the table if it is not already there
+	*/
+	public int intern(char[] source, int offset, int length) {
+		int mask = slots.length - 1;
+		int slot = hash(source, offset, length) & mask;
+		while (slots[slot] != 0) {
+			int id = slots[slot] - 1;
+			if (matches(id, source, offset, length)) {
+				return id;
+			}
+			slot = (slot + 1) & mask;
+		}
+		return add(source, offset, length, slot);
+	}
+
+	public String string(int id) {
+		String lexeme = strings[id];
+		if (lexeme == null) {
+			lexeme = new String(chars, starts[id], lengths[id]);
+			strings[id] = lexeme;
+		}
+		return lexeme;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	private int add(char[] source, int offset, int length, int slot) {
+		if (charCount + length > chars.length) {
+			chars = Arrays.copyOf(chars, Math.max(chars.length * 2, charCount + length));
+		}
+		if (size == starts.length) {
+			starts = Arrays.copyOf(starts, size * 2);
+			lengths = Arrays.copyOf(lengths, size * 2);
+			strings = Arrays.copyOf(strings, size * 2);
+		}
+		System.arraycopy(source, offset, chars, charCount, length);
+		int id = size++;
+		starts[id] = charCount;
+		lengths[id] = length;
+		charCount += length;
+		slots[slot] = id + 1;
+
+		// keep the hash table at most half full
+		if (size * 2 > slots.length) {
+			rehash();
+		}
+		return id;
+	}
+
+	private void rehash() {
+		slots = new int[slots.length * 2];
+		int mask = slots.length - 1;
+		for (int id = 0; id < size; id++) {
+			int slot = hash(chars, starts[id], lengths[id]) & mask;
+			while (slots[slot] != 0) {
+				slot = (slot + 1) & mask;
+			}
+			slots[slot] = id + 1;
+		}
+	}
+
+	private boolean matches(int id, char[] source, int offset, int length) {
+		return lengths[id] == length
+			   && Arrays.equals(chars, starts[id], starts[id] + length, source, offset, offset + length);
+	}
+
+	private static int hash(char[] source, int offset, int length) {
+		int hash = 0;
+		for (int i = offset; i < offset + length; i++) {
+			hash = 31 * hash + source[i];
+		}
+		// spread the low bits, the table size is a power of two
+		return hash ^ (hash >>> 16);
+	}
+}
@@ -0,0 +1,39 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+a transformation of the tree of a class between parsing and code generation
+passes are selected by name with Compiler --passes=name,name,... and run in that order
+*/
+public interface Pass {
+
+	// the passes run when --passes is not given
+	String DEFAULT_PASSES = "inline,fold,dce";
+
+	ClassDeclaration run(ClassDeclaration classDeclaration);
+
+	// a short note on what the pass did to the classes it ran over, or null
+	default String statistics() {
+		return null;
+	}
+
+	static Pass forName(String name) {
+		return switch (name) {
+			case "inline" -> new Inliner();
+			case "fold" -> new ConstantFolder();
+			case "dce" -> new DeadCodeEliminator();
+			default -> throw new Error("unknown pass " + name);
+		};
+	}
+
+	// new instances of the passes in a comma separated list, which may be empty
+	static List<Pass> parse(String names) {
+		List<Pass> passes = new ArrayList<>();
+		for (String name : names.split(",")) {
+			if (!name.isEmpty()) {
+				passes.add(forName(name));
+			}
+		}
+		return passes;
+	}
+}
@@ -0,0 +1,89 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Arrays;
+
+/*
+long-running server mode that keeps the JVM, and the jitted compiler and translator code, warm
+started with
+	Compiler --server          requests are read from stdin, answers written to stdout
+	Compiler --server=PORT     requests are read from TCP connections on 127.0.0.1:PORT,
+							   one connection at a time
+a request is one line
+	compile [options] <file or directory>     same arguments as the Compiler command line
+	translate <file or directory>             same arguments as the Translator command line
+	quit                                      stop the server
+the answer is whatever the request printed, followed by a last line that is either
+	ok <milliseconds> ms
+	error <message>
+*/
+public class Server {
+
+	public static void main(String[] args) throws IOException {
+		if (args[0].equals("--server")) {
+			BufferedReader in = new BufferedReader(new InputStreamReader(System.in));
+			serve(in, System.out);
+		} else if (args[0].startsWith("--server=")) {
+			int port = parsePort(args[0].substring("--server=".length()));
+			try (ServerSocket serverSocket = new ServerSocket(port, 0, InetAddress.getLoopbackAddress())) {
+				boolean running = true;
+				while (running) {
+					try (Socket socket = serverSocket.accept()) {
+						BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+						PrintStream out = new PrintStream(socket.getOutputStream(), true);
+						running = serve(in, out);
+					}
+				}
+			}
+		} else {
+			System.out.println("unknown option " + args[0]);
+			System.exit(1);
+		}
+	}
+
+	// a TCP port number, as Compiler parses --threads
+	private static int parsePort(String value) {
+		try {
+			int port = Integer.parseInt(value);
+			if (port > 0 && port <= 65535) {
+				return port;
+			}
+		} catch (NumberFormatException ignored) {
+		}
+		throw new Error("invalid port " + value);
+	}
+
+	// serve requests until the input ends (returns true) or a quit request (returns false)
+	private static boolean serve(BufferedReader in, PrintStream out) throws IOException {
+		String line;
+		while ((line = in.readLine()) != null) {
+			String[] words = line.trim().split("\\s+");
+			if (words[0].isEmpty()) {
+				continue;
+			}
+			if (words[0].equals("quit")) {
+				return false;
+			}
+
+			String[] requestArgs = Arrays.copyOfRange(words, 1, words.length);
+			long start = System.nanoTime();
+			try {
+				switch (words[0]) {
+					case "compile" -> new Compiler(out).compile(requestArgs);
+					case "translate" -> Translator.translate(requestArgs, out);
+					default -> throw new Error("unknown request " + words[0]);
+				}
+				out.printf("ok %.1f ms%n", (System.nanoTime() - start) / 1e6);
+			} catch (Error | RuntimeException | IOException e) {
+				// a failed request must not take the server down
+				out.println("error " + (e.getMessage() != null ? e.getMessage() : e.toString()));
+			}
+			out.flush();
+		}
+		return true;
+	}
+}
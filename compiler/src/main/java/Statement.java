@@ -0,0 +1,59 @@
+import java.util.List;
+
+/*
+tree of a Jack statement, built by the CompilationEngine and lowered to VM code by the
+CodeGenerator once the passes have run over it
+*/
+public interface Statement {
+
+	// let target = value, or let target[index] = value when index is not null
+	record Let(Expression.Variable target, Expression index, Expression value) implements Statement {}
+
+	// a missing else branch is empty
+	record If(Expression condition, List<Statement> thenStatements, List<Statement> elseStatements)
+			implements Statement {}
+
+	record While(Expression condition, List<Statement> body) implements Statement {}
+
+	// the value of the expression, a call unless a pass replaced it, is discarded
+	record Do(Expression expression) implements Statement {}
+
+	// value is null for return;
+	record Return(Expression value) implements Statement {}
+
+	/*
+	Jack conditions are booleans, 0 or -1; any other value is only true if it is -1, as the
+	CodeGenerator tests a condition that is not known to be boolean with not and if-goto
+	(see Expression.isBoolean)
+	*/
+	static boolean isTrue(Expression.Constant condition) {
+		return condition.value() == -1;
+	}
+
+	/*
+	false if running the statements never gets past their end: they return on every path,
+	or loop forever on a constant true condition
+	*/
+	static boolean canCompleteNormally(List<Statement> statements) {
+		for (Statement statement : statements) {
+			if (!canCompleteNormally(statement)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	static boolean canCompleteNormally(Statement statement) {
+		if (statement instanceof Return) {
+			return false;
+		} else if (statement instanceof While loop) {
+			return !(loop.condition() instanceof Expression.Constant constant && isTrue(constant));
+		} else if (statement instanceof If branch) {
+			if (branch.condition() instanceof Expression.Constant constant) {
+				return canCompleteNormally(isTrue(constant) ? branch.thenStatements() : branch.elseStatements());
+			}
+			return canCompleteNormally(branch.thenStatements()) || canCompleteNormally(branch.elseStatements());
+		}
+		return true;
+	}
+}
@@ -1 +0,0 @@
-public record Subroutine(String name, String returnType, String declarationKind) {}
@@ -0,0 +1,16 @@
+import java.util.List;
+
+import enums.Keyword;
+
+/*
+a constructor, function or method of a class after parsing
+name is the VM function name, Class.subroutine, and parameterCount does not include the
+this argument of a method
+*/
+public record SubroutineDeclaration(String name, Keyword kind, String returnType, int parameterCount,
+									int localCount, List<Statement> body) {
+
+	public SubroutineDeclaration withBody(List<Statement> body) {
+		return new SubroutineDeclaration(name, kind, returnType, parameterCount, localCount, body);
+	}
+}
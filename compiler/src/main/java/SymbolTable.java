@@ -1,25 +1,44 @@
 import enums.IdentifierKind;
 
-import java.util.HashMap;
-
+import java.util.Arrays;
+
+/*
+symbols of the class being compiled, in a class scope (statics and fields) and a
+subroutine scope (arguments and vars) that shadows it
+names and types are lexeme ids of the tokenizer's LexemeTable, so a name is resolved with a
+single array lookup to its entry, which gives its kind, index and type
+the entries are kept in parallel arrays, the class scope first, so starting a subroutine
+only truncates the arrays and clears the names of the previous subroutine
+*/
 public class SymbolTable {
 
-	private HashMap<String, SymbolTableEntry> classScopeTable      = new HashMap<>();
-	private HashMap<String, SymbolTableEntry> subroutineScopeTable = new HashMap<>();
-
-	private Integer staticIndex   = 0;
-	private Integer fieldIndex    = 0;
-	private Integer argumentIndex = 0;
-	private Integer varIndex      = 0;
-
-	public SymbolTable() {
+	private final LexemeTable lexemeTable;
+
+	// the entries, those of the class scope first
+	private int[]            names         = new int[16];
+	private int[]            types         = new int[16];
+	private IdentifierKind[] kinds         = new IdentifierKind[16];
+	private int[]            indices       = new int[16];
+	private int              classEntries  = 0;
+	private int              entries       = 0;
+	// entry + 1 of every defined name by lexeme id, 0 if it is not defined in the scope
+	private int[]            classSlots      = new int[64];
+	private int[]            subroutineSlots = new int[64];
+	// the running index of every kind
+	private final int[]      counts          = new int[IdentifierKind.values().length];
+
+	public SymbolTable(LexemeTable lexemeTable) {
+		this.lexemeTable = lexemeTable;
 	}
 
 	public void startSubroutine() {
-		// start a new subroutine scope (reset the subroutine's symbol table)
-		subroutineScopeTable = new HashMap<>();
-		argumentIndex = 0;
-		varIndex = 0;
+		// start a new subroutine scope (truncate the subroutine's entries)
+		for (int entry = classEntries; entry < entries; entry++) {
+			subroutineSlots[names[entry]] = 0;
+		}
+		entries = classEntries;
+		counts[IdentifierKind.ARGUMENT.ordinal()] = 0;
+		counts[IdentifierKind.VAR.ordinal()] = 0;
 	}
 
 	/*
@@ -30,26 +49,43 @@ public class SymbolTable {
 
 	kind can only be STATIC, FIELD, ARG, or VAR
 	*/
-	public void define(String name, String type, IdentifierKind kind) {
+	public void define(int name, int type, IdentifierKind kind) {
+		ensureCapacity(name);
 		switch (kind) {
-			case STATIC:
-				classScopeTable.put(name, new SymbolTableEntry(type, kind, staticIndex));
-				staticIndex++;
-				break;
-			case FIELD:
-				classScopeTable.put(name, new SymbolTableEntry(type, kind, fieldIndex));
-				fieldIndex++;
-				break;
-			case ARGUMENT:
-				subroutineScopeTable.put(name, new SymbolTableEntry(type, kind, argumentIndex));
-				argumentIndex++;
-				break;
-			case VAR:
-				subroutineScopeTable.put(name, new SymbolTableEntry(type, kind, varIndex));
-				varIndex++;
-				break;
-			default:
-				throw new Error("invalid identifier kind");
+			case STATIC, FIELD -> {
+				// class variables are declared between subroutines, the last one is over
+				startSubroutine();
+				add(name, type, kind);
+				classEntries = entries;
+				classSlots[name] = entries;
+			}
+			case ARGUMENT, VAR -> {
+				add(name, type, kind);
+				subroutineSlots[name] = entries;
+			}
+			default -> throw new Error("invalid identifier kind");
+		}
+	}
+
+	private void add(int name, int type, IdentifierKind kind) {
+		if (entries == names.length) {
+			names = Arrays.copyOf(names, entries * 2);
+			types = Arrays.copyOf(types, entries * 2);
+			kinds = Arrays.copyOf(kinds, entries * 2);
+			indices = Arrays.copyOf(indices, entries * 2);
+		}
+		names[entries] = name;
+		types[entries] = type;
+		kinds[entries] = kind;
+		indices[entries] = counts[kind.ordinal()]++;
+		entries++;
+	}
+
+	private void ensureCapacity(int name) {
+		if (name >= classSlots.length) {
+			int length = Math.max(classSlots.length * 2, name + 1);
+			classSlots = Arrays.copyOf(classSlots, length);
+			subroutineSlots = Arrays.copyOf(subroutineSlots, length);
 		}
 	}
 
@@ -57,70 +93,53 @@ public class SymbolTable {
 	return the number of variables of the given kind already defined
 	in the current scope
 	*/
-	public Integer varCount(IdentifierKind kind) {
-		switch (kind) {
-			case STATIC:
-				return staticIndex;
-			case FIELD:
-				return fieldIndex;
-			case ARGUMENT:
-				return argumentIndex;
-			case VAR:
-				return varIndex;
-			default:
-				return 0;
-		}
+	public int varCount(IdentifierKind kind) {
+		return counts[kind.ordinal()];
 	}
 
 	/*
-	return the type of the named identifier in the current scope
+	returns the entry of the named identifier in the current scope
+	if the identifier is unknown in the current scope,
+	return -1
 	*/
-	public String typeOf(String name) {
-		if (subroutineScopeTable.containsKey(name)) {
-			return subroutineScopeTable.get(name).type();
+	public int resolve(int name) {
+		if (name >= classSlots.length) {
+			return -1;
+		}
+		int slot = subroutineSlots[name];
+		if (slot == 0) {
+			slot = classSlots[name];
 		}
-		return classScopeTable.get(name).type();
+		return slot - 1;
 	}
 
+	public IdentifierKind kind(int entry) {
+		return kinds[entry];
+	}
 
-	/*
-	returns the kind of the named identifier in the current scope
-	if the identifier is unknown in the current scope,
-	return NONE
-	*/
-	public IdentifierKind kindOf(String name) {
-		if (subroutineScopeTable.containsKey(name)) {
-			return subroutineScopeTable.get(name).kind();
-		} else if (classScopeTable.containsKey(name)) {
-			return classScopeTable.get(name).kind();
-		}
-		return IdentifierKind.NONE;
+	// the index assigned to the identifier of the entry
+	public int index(int entry) {
+		return indices[entry];
 	}
 
-	/*
-	returns the index assigned to the named identifier
-	*/
-	public Integer indexOf(String name) {
-		if (subroutineScopeTable.containsKey(name)) {
-			return subroutineScopeTable.get(name).index();
-		}
-		return classScopeTable.get(name).index();
+	// the lexeme id of the type of the entry
+	public int type(int entry) {
+		return types[entry];
+	}
+
+	public String typeName(int entry) {
+		return lexemeTable.string(types[entry]);
 	}
 
 	public void logTables() {
 		System.out.println("---- class scope table ----");
-		for (String name : classScopeTable.keySet()) {
-			System.out.printf("%s: %s\n%n", name, classScopeTable.get(name).toString());
-		}
-
-		System.out.println("---- subroutine scope table ----");
-		for (String name : subroutineScopeTable.keySet()) {
-			System.out.printf("%s: %s\n%n", name, subroutineScopeTable.get(name).toString());
+		for (int entry = 0; entry < entries; entry++) {
+			if (entry == classEntries) {
+				System.out.println("---- subroutine scope table ----");
+			}
+			System.out.printf("%s: %s %s %d%n", lexemeTable.string(names[entry]), typeName(entry), kinds[entry],
+							  indices[entry]);
 		}
 		System.out.println();
 	}
-
-	public Boolean contains(String name) {
-		return classScopeTable.containsKey(name) || subroutineScopeTable.containsKey(name);
-	}
 }
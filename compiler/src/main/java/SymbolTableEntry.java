@@ -1,3 +0,0 @@
-import enums.IdentifierKind;
-
-public record SymbolTableEntry(String type, IdentifierKind kind, Integer index) {}
@@ -1,3 +0,0 @@
-import enums.TokenType;
-
-public record Token(String lexeme, TokenType tokenType) {}
@@ -0,0 +1,63 @@
+import enums.TokenType;
+
+/*
+compact struct-of-arrays storage for a window of tokens
+a token is its kind, the start offset and length of its lexeme in the tokenizer's
+shared char buffer, and an id (the interned lexeme id for identifiers and keywords,
+the Symbol ordinal for symbols, which Tokenizer.isSymbol and symbol() rely on)
+tokens are addressed by their absolute position in the input, and the store keeps
+the last capacity of them as a ring
+*/
+public class TokenStore {
+
+	private static final TokenType[] tokenTypes = TokenType.values();
+
+	private final int   mask;
+	private final int[] kinds;
+	private final int[] starts;
+	private final int[] lengths;
+	private final int[] ids;
+
+	// capacity must be a power of two
+	public TokenStore(int capacity) {
+		if (Integer.bitCount(capacity) != 1) {
+			throw new IllegalArgumentException("token store capacity must be a power of two");
+		}
+		this.mask = capacity - 1;
+		this.kinds = new int[capacity];
+		this.starts = new int[capacity];
+		this.lengths = new int[capacity];
+		this.ids = new int[capacity];
+	}
+
+	public void set(int position, TokenType tokenType, int start, int length, int id) {
+		int slot = position & mask;
+		kinds[slot] = tokenType.ordinal();
+		starts[slot] = start;
+		lengths[slot] = length;
+		ids[slot] = id;
+	}
+
+	public TokenType tokenType(int position) {
+		return tokenTypes[kinds[position & mask]];
+	}
+
+	public int start(int position) {
+		return starts[position & mask];
+	}
+
+	public int length(int position) {
+		return lengths[position & mask];
+	}
+
+	public int id(int position) {
+		return ids[position & mask];
+	}
+
+	// move the lexemes of the tokens in [from, to] by offset after the char buffer is compacted
+	public void shift(int from, int to, int offset) {
+		for (int position = from; position <= to; position++) {
+			starts[position & mask] += offset;
+		}
+	}
+}
@@ -1,174 +1,342 @@
+import enums.Keyword;
+import enums.Symbol;
 import enums.TokenType;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.util.ArrayList;
+import java.io.Reader;
+import java.io.UncheckedIOException;
 import java.util.Arrays;
-import java.util.List;
 
 public class Tokenizer {
 
-	private final        BufferedReader bufferedReader;
-	private final        List<Token>    tokenList             = new ArrayList<>();
-	private static final String[]       keywords              = {"class",
-																 "constructor",
-																 "function",
-																 "method",
-																 "field",
-																 "static",
-																 "var",
-																 "int",
-																 "char",
-																 "boolean",
-																 "void",
-																 "true",
-																 "false",
-																 "null",
-																 "this",
-																 "let",
-																 "do",
-																 "if",
-																 "else",
-																 "while",
-																 "return"
-	};
-	private static final String[]       symbols               = {"{", "}", "(", ")",
-																 "[", "]", ".", ",",
-																 ";", "+", "-", "*",
-																 "/", "&", "|", "<",
-																 ">", "=", "~"
-	};
-	private              int            currentChar;
-	private              int            nextChar;
-	private              Token          currentToken;
-	private              Integer        currentTokenListIndex = -1;
-
-	public Tokenizer(BufferedReader bufferedReader) {
-		this.bufferedReader = bufferedReader;
+	// the source is read in large blocks instead of one character at a time
+	private static final int            BUFFER_SIZE    = 1 << 13;
+	// the keywords are interned first, so a keyword's lexeme id is its Keyword ordinal
+	private static final String[]       keywords       = Arrays.stream(Keyword.values())
+																 .map(Keyword::lexeme)
+																 .toArray(String[]::new);
+	// character class of every ASCII character, characters outside the table are INVALID
+	private static final byte           INVALID        = 0;
+	private static final byte           WHITESPACE     = 1;
+	private static final byte           LETTER         = 2;
+	private static final byte           DIGIT          = 3;
+	private static final byte           SYMBOL         = 4;
+	private static final byte           QUOTE          = 5;
+	private static final byte[]         characterClass = new byte[128];
+	// Symbol ordinal of every symbol character
+	private static final byte[]         symbolId       = new byte[128];
+	// the current token and up to LOOKAHEAD scanned tokens after it
+	private static final int            LOOKAHEAD      = 1;
+	private static final int            RING_SIZE      = 2;
+	private final        Reader         reader;
+	private final        TokenStore     tokenStore     = new TokenStore(RING_SIZE);
+	private final        LexemeTable    lexemeTable    = new LexemeTable(keywords);
+	// token lexemes are slices of this buffer, it is compacted (or grown) on refill
+	private              char[]         buffer         = new char[BUFFER_SIZE];
+	private              int            bufferPosition;
+	private              int            bufferLimit;
+	// start of the token being scanned, -1 between tokens
+	private              int            tokenStart     = -1;
+	private              int            position       = -1;
+	private              int            tokensAhead;
+	private              long           charsScanned;
+	private              int            tokenCount;
+
+	static {
+		for (char c : new char[]{' ', '\t', '\n', '\r', '\f', 0x0B}) {
+			characterClass[c] = WHITESPACE;
+		}
+		for (char c = 'a'; c <= 'z'; c++) {
+			characterClass[c] = LETTER;
+			characterClass[Character.toUpperCase(c)] = LETTER;
+		}
+		characterClass['_'] = LETTER;
+		for (char c = '0'; c <= '9'; c++) {
+			characterClass[c] = DIGIT;
+		}
+		for (Symbol symbol : Symbol.values()) {
+			characterClass[symbol.character()] = SYMBOL;
+			symbolId[symbol.character()] = (byte) symbol.ordinal();
+		}
+		characterClass['"'] = QUOTE;
 	}
 
-	public Boolean hasMoreTokens() {
-		return tokenList.size() - 1 != currentTokenListIndex;
+	public Tokenizer(Reader reader) {
+		this.reader = reader;
 	}
 
-	public void advance() {
-		currentTokenListIndex++;
-		currentToken = tokenList.get(currentTokenListIndex);
+	public Boolean hasMoreTokens() {
+		return scanAhead(1);
 	}
 
-	public void reverse() {
-		currentTokenListIndex--;
-		currentToken = tokenList.get(currentTokenListIndex);
+	public void advance() {
+		if (!scanAhead(1)) {
+			throw new Error("unexpected end of file");
+		}
+		position++;
+		tokensAhead--;
 	}
 
 	public TokenType tokenType() {
-		return currentToken.tokenType();
+		return tokenStore.tokenType(position);
 	}
 
 	public String tokenValue() {
-		return currentToken.lexeme();
+		return lexeme(position);
 	}
 
-	public void tokenize() {
-		try {
-			bufferedReader.mark(1);
-			currentChar = bufferedReader.read();
+	// true if the current token is the given keyword
+	public boolean isKeyword(Keyword keyword) {
+		return tokenStore.tokenType(position) == TokenType.KEYWORD && tokenStore.id(position) == keyword.ordinal();
+	}
+
+	// true if the current token is the given symbol
+	public boolean isSymbol(Symbol symbol) {
+		return tokenStore.tokenType(position) == TokenType.SYMBOL && tokenStore.id(position) == symbol.ordinal();
+	}
+
+	// the current keyword, only valid if the current token is a KEYWORD
+	public Keyword keyword() {
+		return Keyword.valueOf(tokenStore.id(position));
+	}
+
+	// the current symbol, only valid if the current token is a SYMBOL
+	public Symbol symbol() {
+		return Symbol.valueOf(tokenStore.id(position));
+	}
 
-			if (currentChar == -1) {
-				// end of file
-				return;
+	// the interned lexeme id of the current identifier or keyword
+	public int tokenId() {
+		return tokenStore.id(position);
+	}
+
+	// the value of the current integer constant
+	public int intValue() {
+		int value = 0;
+		int start = tokenStore.start(position);
+		for (int i = start; i < start + tokenStore.length(position); i++) {
+			value = value * 10 + (buffer[i] - '0');
+			if (value > 32767) {
+				throw new Error("integer constant out of range");
 			}
+		}
+		return value;
+	}
+
+	// the type of the token after the current one, without advancing
+	public TokenType peekType() {
+		peekToken();
+		return tokenStore.tokenType(position + 1);
+	}
+
+	// true if the token after the current one is the given symbol
+	public boolean peekSymbol(Symbol symbol) {
+		peekToken();
+		return tokenStore.tokenType(position + 1) == TokenType.SYMBOL && tokenStore.id(position + 1) == symbol.ordinal();
+	}
+
+	// the value of the token after the current one, without advancing
+	public String peekValue() {
+		peekToken();
+		return lexeme(position + 1);
+	}
+
+	public LexemeTable lexemeTable() {
+		return lexemeTable;
+	}
+
+	public int tokenCount() {
+		return tokenCount;
+	}
+
+	public long charsScanned() {
+		return charsScanned;
+	}
+
+	private String lexeme(int tokenPosition) {
+		switch (tokenStore.tokenType(tokenPosition)) {
+			case KEYWORD:
+			case IDENTIFIER:
+				return lexemeTable.string(tokenStore.id(tokenPosition));
+			case SYMBOL:
+				return Symbol.valueOf(tokenStore.id(tokenPosition)).lexeme();
+			default:
+				return new String(buffer, tokenStore.start(tokenPosition), tokenStore.length(tokenPosition));
+		}
+	}
 
-			// skip whitespace
-			if (Character.isWhitespace(currentChar)) {
-				do {
-					bufferedReader.mark(1);
-					currentChar = bufferedReader.read();
-				} while (Character.isWhitespace(currentChar));
-				bufferedReader.reset();
-				tokenize();
-
-			} else if (currentChar == '/') {
-				// detect and skip comment sections
-				bufferedReader.mark(1);
-				nextChar = bufferedReader.read();
-
-				if (nextChar == '/') {
-					bufferedReader.readLine();
-					tokenize();
-				} else if (nextChar == '*') {
-					do {
-						currentChar = nextChar;
-						nextChar = bufferedReader.read();
-					} while (!(currentChar == '*' && nextChar == '/'));
-					tokenize();
-				} else {
-					// the character is the symbol /
-					Token token = new Token(String.valueOf((char) currentChar), TokenType.SYMBOL);
-					tokenList.add(token);
-					bufferedReader.reset();
-					tokenize();
+	private void peekToken() {
+		if (!scanAhead(1)) {
+			throw new Error("unexpected end of file");
+		}
+	}
+
+	// make sure the next count tokens are in the store, returns false if the input ends first
+	private boolean scanAhead(int count) {
+		assert count <= LOOKAHEAD;
+		try {
+			while (tokensAhead < count) {
+				if (!scanToken()) {
+					return false;
 				}
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		return true;
+	}
 
-				// the character is a symbol (other than  '/')
-			} else if (Arrays.asList(symbols).contains(Character.toString(currentChar))) {
-				Token token = new Token(String.valueOf((char) currentChar), TokenType.SYMBOL);
-				tokenList.add(token);
-				tokenize();
+	private void addToken(TokenType tokenType, int start, int id) {
+		tokenStore.set(position + tokensAhead + 1, tokenType, start, bufferPosition - start, id);
+		tokensAhead++;
+		tokenCount++;
+		tokenStart = -1;
+	}
+
+	// scan the next token from the input into the store, or return false at the end of the input
+	private boolean scanToken() throws IOException {
+		int currentChar;
+
+		while ((currentChar = read()) != -1) {
+			tokenStart = bufferPosition - 1;
+
+			switch (classOf(currentChar)) {
+				case WHITESPACE:
+					tokenStart = -1;
+					break;
+
+				case SYMBOL:
+					// detect and skip comment sections
+					if (currentChar == '/' && peek() == '/') {
+						tokenStart = -1;
+						skipLineComment();
+						break;
+					} else if (currentChar == '/' && peek() == '*') {
+						tokenStart = -1;
+						read();
+						skipBlockComment();
+						break;
+					}
+					addToken(TokenType.SYMBOL, tokenStart, symbolId[currentChar]);
+					return true;
 
 				// there is a string constant, a sequence surrounded by double quotes
-			} else if (currentChar == '"') {
-				StringBuilder newToken = new StringBuilder();
-				nextChar = bufferedReader.read();
+				case QUOTE:
+					tokenStart = bufferPosition;
+					int nextChar = peek();
 
-				while (nextChar != '"') {
-					newToken.append((char) nextChar);
-					nextChar = bufferedReader.read();
-				}
-				Token token = new Token(newToken.toString(), TokenType.STRING_CONST);
-				tokenList.add(token);
-				tokenize();
+					while (nextChar != '"') {
+						if (nextChar == -1 || nextChar == '\n') {
+							throw new Error("unterminated string constant");
+						}
+						read();
+						nextChar = peek();
+					}
+					addToken(TokenType.STRING_CONST, tokenStart, 0);
+					// consume the closing quote
+					read();
+					return true;
 
 				// an alphabetic character or "_"
 				// if alphabetic, may be the first char of a keyword or identifier
 				// if "_", may be the first char of an identifier
-			} else if (Character.isAlphabetic(currentChar) || currentChar == '_') {
-				StringBuilder newToken = new StringBuilder();
-				do {
-					newToken.append((char) currentChar);
-					bufferedReader.mark(1);
-					currentChar = bufferedReader.read();
-				} while (Character.isAlphabetic(currentChar) || Character.isDigit(currentChar) || currentChar == '_');
-				Token token = new Token(newToken.toString(), resolveTokenType(newToken.toString()));
-				bufferedReader.reset();
-				tokenList.add(token);
-				tokenize();
+				case LETTER:
+					while (classOf(peek()) == LETTER || classOf(peek()) == DIGIT) {
+						bufferPosition++;
+					}
+					int length = bufferPosition - tokenStart;
+					Keyword keyword = Keyword.lookup(buffer, tokenStart, length);
+					if (keyword != null) {
+						addToken(TokenType.KEYWORD, tokenStart, keyword.ordinal());
+					} else {
+						addToken(TokenType.IDENTIFIER, tokenStart, lexemeTable.intern(buffer, tokenStart, length));
+					}
+					return true;
 
 				// integer constant, a digit not preceded by an alphabetic character or "_"
-			} else if (Character.isDigit(currentChar)) {
-				StringBuilder newToken = new StringBuilder();
-				do {
-					newToken.append((char) currentChar);
-					bufferedReader.mark(1);
-					currentChar = bufferedReader.read();
-				} while (Character.isDigit(currentChar));
-				Token token = new Token(newToken.toString(), TokenType.INT_CONST);
-				bufferedReader.reset();
-				tokenList.add(token);
-				tokenize();
-
-			} else {
-				System.out.println("default case");
+				case DIGIT:
+					while (classOf(peek()) == DIGIT) {
+						bufferPosition++;
+					}
+					addToken(TokenType.INT_CONST, tokenStart, 0);
+					return true;
+
+				default:
+					throw new Error(String.format("invalid character '%c'", (char) currentChar));
 			}
-		} catch (IOException e) {
-			e.printStackTrace();
 		}
+		return false;
+	}
+
+	private static byte classOf(int c) {
+		return c >= 0 && c < 128 ? characterClass[c] : INVALID;
+	}
+
+	private void skipLineComment() throws IOException {
+		int currentChar;
+		do {
+			currentChar = read();
+		} while (currentChar != '\n' && currentChar != -1);
+	}
+
+	private void skipBlockComment() throws IOException {
+		int currentChar = read();
+		int nextChar = read();
+		while (!(currentChar == '*' && nextChar == '/')) {
+			if (nextChar == -1) {
+				throw new Error("unterminated comment");
+			}
+			currentChar = nextChar;
+			nextChar = read();
+		}
+	}
+
+	// returns the next character and consumes it, or -1 at the end of the input
+	private int read() throws IOException {
+		if (bufferPosition == bufferLimit && !fill()) {
+			return -1;
+		}
+		return buffer[bufferPosition++];
 	}
 
-	private TokenType resolveTokenType(String token) {
-		if (Arrays.stream(keywords).anyMatch(token::equals)) {
-			return TokenType.KEYWORD;
+	// returns the next character without consuming it, or -1 at the end of the input
+	private int peek() throws IOException {
+		if (bufferPosition == bufferLimit && !fill()) {
+			return -1;
+		}
+		return buffer[bufferPosition];
+	}
+
+	private boolean fill() throws IOException {
+		// keep the lexemes of the tokens still in use, drop everything before them
+		int firstLive = Math.max(position, 0);
+		int lastLive = position + tokensAhead;
+		int keep = bufferPosition;
+		for (int p = firstLive; p <= lastLive; p++) {
+			keep = Math.min(keep, tokenStore.start(p));
+		}
+		if (tokenStart >= 0) {
+			keep = Math.min(keep, tokenStart);
+		}
+		if (keep > 0) {
+			System.arraycopy(buffer, keep, buffer, 0, bufferLimit - keep);
+			bufferLimit -= keep;
+			bufferPosition -= keep;
+			if (tokenStart >= 0) {
+				tokenStart -= keep;
+			}
+			tokenStore.shift(firstLive, lastLive, -keep);
+		} else if (bufferLimit == buffer.length) {
+			// a single token longer than the buffer
+			buffer = Arrays.copyOf(buffer, buffer.length * 2);
+		}
+
+		int read = reader.read(buffer, bufferLimit, buffer.length - bufferLimit);
+		if (read <= 0) {
+			return false;
 		}
-		return TokenType.IDENTIFIER;
+		bufferLimit += read;
+		charsScanned += read;
+		return true;
 	}
 }
@@ -0,0 +1,71 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+base of the passes that rebuild the tree of a class
+by default every statement and expression is copied unchanged, a pass overrides the methods
+for the nodes it changes; operands are rewritten before the expression that uses them
+*/
+public abstract class TreeRewriter implements Pass {
+
+	@Override
+	public ClassDeclaration run(ClassDeclaration classDeclaration) {
+		List<SubroutineDeclaration> subroutines = new ArrayList<>();
+		for (SubroutineDeclaration subroutine : classDeclaration.subroutines()) {
+			subroutines.add(rewriteSubroutine(subroutine));
+		}
+		return classDeclaration.withSubroutines(subroutines);
+	}
+
+	protected SubroutineDeclaration rewriteSubroutine(SubroutineDeclaration subroutine) {
+		return subroutine.withBody(rewriteStatements(subroutine.body()));
+	}
+
+	protected List<Statement> rewriteStatements(List<Statement> statements) {
+		List<Statement> rewritten = new ArrayList<>(statements.size());
+		for (Statement statement : statements) {
+			rewritten.add(rewriteStatement(statement));
+		}
+		return rewritten;
+	}
+
+	protected Statement rewriteStatement(Statement statement) {
+		if (statement instanceof Statement.Let let) {
+			return new Statement.Let(let.target(), let.index() != null ? rewriteExpression(let.index()) : null,
+									 rewriteExpression(let.value()));
+		} else if (statement instanceof Statement.If branch) {
+			return new Statement.If(rewriteExpression(branch.condition()), rewriteStatements(branch.thenStatements()),
+									rewriteStatements(branch.elseStatements()));
+		} else if (statement instanceof Statement.While loop) {
+			return new Statement.While(rewriteExpression(loop.condition()), rewriteStatements(loop.body()));
+		} else if (statement instanceof Statement.Do call) {
+			return new Statement.Do(rewriteExpression(call.expression()));
+		} else if (statement instanceof Statement.Return ret) {
+			return new Statement.Return(ret.value() != null ? rewriteExpression(ret.value()) : null);
+		}
+		throw new Error("unknown statement " + statement);
+	}
+
+	protected Expression rewriteExpression(Expression expression) {
+		if (expression instanceof Expression.ArrayElement arrayElement) {
+			expression = new Expression.ArrayElement(arrayElement.array(), rewriteExpression(arrayElement.index()));
+		} else if (expression instanceof Expression.Call call) {
+			List<Expression> arguments = new ArrayList<>(call.arguments().size());
+			for (Expression argument : call.arguments()) {
+				arguments.add(rewriteExpression(argument));
+			}
+			expression = new Expression.Call(call.function(), arguments);
+		} else if (expression instanceof Expression.Unary unary) {
+			expression = new Expression.Unary(unary.operator(), rewriteExpression(unary.operand()));
+		} else if (expression instanceof Expression.Binary binary) {
+			expression = new Expression.Binary(binary.operator(), rewriteExpression(binary.left()),
+											   rewriteExpression(binary.right()));
+		}
+		return rewrite(expression);
+	}
+
+	// rewrite a single expression whose operands have already been rewritten
+	protected Expression rewrite(Expression expression) {
+		return expression;
+	}
+}
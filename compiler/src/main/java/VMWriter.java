@@ -1,11 +1,32 @@
 import java.io.BufferedWriter;
 import java.io.IOException;
 
+/*
+writes the VM commands of a class as .vm text, straight into a CodeWriter (see Compiler --pipeline),
+or both
+*/
 public class VMWriter {
+	// null when no .vm text is written
 	private final BufferedWriter bufferedWriter;
+	// null when the commands are not translated in the same process
+	private final CodeWriter     codeWriter;
 
 	public VMWriter(BufferedWriter bufferedWriter) {
+		this(bufferedWriter, null);
+	}
+
+	public VMWriter(BufferedWriter bufferedWriter, CodeWriter codeWriter) {
 		this.bufferedWriter = bufferedWriter;
+		this.codeWriter = codeWriter;
+	}
+
+	public void write(VMCommand command) {
+		if (codeWriter != null) {
+			codeWriter.write(command);
+		}
+		if (bufferedWriter != null) {
+			writeLine(command.toString());
+		}
 	}
 
 	private void writeLine(String line) {
@@ -18,42 +39,47 @@ public class VMWriter {
 	}
 
 	public void writePush(String segment, Integer index) {
-		writeLine(String.format("push %s %d", segment, index));
+		write(VMCommand.push(segment, index));
 	}
 
 	public void writePop(String segment, Integer index) {
-		writeLine(String.format("pop %s %d", segment, index));
+		write(VMCommand.pop(segment, index));
 	}
 
 	public void writeArithmetic(String command) {
-		writeLine(String.format("%s", command));
+		write(VMCommand.arithmetic(command));
 	}
 
 	public void writeLabel(String label) {
-		writeLine(String.format("label %s", label));
+		write(VMCommand.label(label));
 	}
 
 	public void writeGoto(String label) {
-		writeLine(String.format("goto %s", label));
+		write(VMCommand.goTo(label));
 	}
 
 	public void writeIf(String label) {
-		writeLine(String.format("if-goto %s", label));
+		write(VMCommand.ifGoto(label));
 	}
 
 	public void writeCall(String name, Integer nArgs) {
-		writeLine(String.format("call %s %d", name, nArgs));
+		write(VMCommand.call(name, nArgs));
 	}
 
 	public void writeFunction(String name, Integer nLocals) {
-		writeLine(String.format("function %s %d", name, nLocals));
+		write(VMCommand.function(name, nLocals));
 	}
 
 	public void writeReturn() {
-		writeLine("return");
+		write(VMCommand.returnCommand());
 	}
 
 	public void close() throws IOException {
-		bufferedWriter.close();
+		if (bufferedWriter != null) {
+			bufferedWriter.close();
+		}
+		if (codeWriter != null) {
+			codeWriter.close();
+		}
 	}
 }
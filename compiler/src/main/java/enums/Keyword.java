@@ -0,0 +1,101 @@
+package enums;
+
+public enum Keyword {
+	CLASS("class"),
+	CONSTRUCTOR("constructor"),
+	FUNCTION("function"),
+	METHOD("method"),
+	FIELD("field"),
+	STATIC("static"),
+	VAR("var"),
+	INT("int"),
+	CHAR("char"),
+	BOOLEAN("boolean"),
+	VOID("void"),
+	TRUE("true"),
+	FALSE("false"),
+	NULL("null"),
+	THIS("this"),
+	LET("let"),
+	DO("do"),
+	IF("if"),
+	ELSE("else"),
+	WHILE("while"),
+	RETURN("return");
+
+	private static final Keyword[] keywords = values();
+
+	private final String lexeme;
+
+	Keyword(String lexeme) {
+		this.lexeme = lexeme;
+	}
+
+	public String lexeme() {
+		return lexeme;
+	}
+
+	public static Keyword valueOf(int id) {
+		return keywords[id];
+	}
+
+	/*
+	return the keyword spelled by source[offset, offset + length), or null for an identifier
+	the length and the first character select at most two candidates,
+	so a word costs a switch and at most two comparisons
+	*/
+	public static Keyword lookup(char[] source, int offset, int length) {
+		Keyword candidate = null;
+		char first = source[offset];
+		switch (length) {
+			case 2:
+				candidate = first == 'd' ? DO : first == 'i' ? IF : null;
+				break;
+			case 3:
+				candidate = first == 'v' ? VAR : first == 'i' ? INT : first == 'l' ? LET : null;
+				break;
+			case 4:
+				switch (first) {
+					case 'c' -> candidate = CHAR;
+					case 'v' -> candidate = VOID;
+					case 't' -> candidate = source[offset + 1] == 'r' ? TRUE : THIS;
+					case 'n' -> candidate = NULL;
+					case 'e' -> candidate = ELSE;
+				}
+				break;
+			case 5:
+				switch (first) {
+					case 'c' -> candidate = CLASS;
+					case 'f' -> candidate = source[offset + 1] == 'i' ? FIELD : FALSE;
+					case 'w' -> candidate = WHILE;
+				}
+				break;
+			case 6:
+				switch (first) {
+					case 'm' -> candidate = METHOD;
+					case 's' -> candidate = STATIC;
+					case 'r' -> candidate = RETURN;
+				}
+				break;
+			case 7:
+				candidate = first == 'b' ? BOOLEAN : null;
+				break;
+			case 8:
+				candidate = first == 'f' ? FUNCTION : null;
+				break;
+			case 11:
+				candidate = first == 'c' ? CONSTRUCTOR : null;
+				break;
+		}
+		if (candidate == null) {
+			return null;
+		}
+		// the first character already matched
+		for (int i = 1; i < length; i++) {
+			if (candidate.lexeme.charAt(i) != source[offset + i]) {
+				return null;
+			}
+		}
+		return candidate;
+	}
+}
@@ -0,0 +1,45 @@
+package enums;
+
+public enum Symbol {
+	LEFT_BRACE('{'),
+	RIGHT_BRACE('}'),
+	LEFT_PARENTHESIS('('),
+	RIGHT_PARENTHESIS(')'),
+	LEFT_BRACKET('['),
+	RIGHT_BRACKET(']'),
+	DOT('.'),
+	COMMA(','),
+	SEMICOLON(';'),
+	PLUS('+'),
+	MINUS('-'),
+	ASTERISK('*'),
+	SLASH('/'),
+	AMPERSAND('&'),
+	PIPE('|'),
+	LESS_THAN('<'),
+	GREATER_THAN('>'),
+	EQUALS('='),
+	TILDE('~');
+
+	private static final Symbol[] symbols = values();
+
+	private final char   character;
+	private final String lexeme;
+
+	Symbol(char character) {
+		this.character = character;
+		this.lexeme = String.valueOf(character);
+	}
+
+	public char character() {
+		return character;
+	}
+
+	public String lexeme() {
+		return lexeme;
+	}
+
+	public static Symbol valueOf(int id) {
+		return symbols[id];
+	}
+}
@@ -2,24 +2,194 @@ import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
-import java.util.Random;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 public class CodeWriter implements AutoCloseable {
 
-	private final        BufferedWriter bufferedWriter;
-	private              String         currentFileName;
-	private static final Random         random = new Random();
+	// the largest index popped to by incrementing A with a cached top, larger ones go through R13 and R14
+	private static final int MAX_ADDRESS_INCREMENTS = 5;
+
+	// the command sequences translated as one, after a push
+	private enum Fusion {
+		BINARY("push+binary"),
+		COMPARISON("push+comparison"),
+		COMPARISON_BRANCH("push+comparison+if-goto"),
+		MOVE("push+pop"),
+		BRANCH("push+if-goto");
+
+		private final String name;
+
+		Fusion(String name) {
+			this.name = name;
+		}
+	}
+
+	private final BufferedWriter bufferedWriter;
+	private       String         currentFileName;
+	/*
+	labels are scoped by the current function, or by the current file for commands outside
+	of any function, so that the same VM label in two functions does not clash
+	labels made up by the translator are numbered per scope, so the output is reproducible
+	*/
+	private       String         currentScope      = "bootstrap";
+	private       int            labelCounter      = 0;
+	/*
+	calls and returns jump to the global $$CALL and $$RETURN routines written by writeInit
+	instead of being expanded inline, which saves ROM at the cost of a few cycles per call
+	*/
+	private       boolean        sharedCalls       = false;
+	// eq, gt and lt jump to one global routine per operator written by writeInit, likewise
+	private       boolean        sharedComparisons = false;
+	// the number of instructions written, which is the number of ROM words of the output
+	private       int            romWords          = 0;
+	private       int            calls             = 0;
+	private       int            returns           = 0;
+	private       int            comparisons       = 0;
+	// the ROM words of the shared call, return and comparison sites and routines
+	private       int            sharedWords       = 0;
+	// rewrites the code between two labels before it is written, null if it is written as is
+	private       Peephole       peephole;
+	/*
+	keep the top of the stack in D instead of RAM, so that a push directly followed by a
+	command that pops does not go through memory
+	the top is spilled to RAM at labels, gotos, calls, returns and function boundaries,
+	where the stack is always completely in RAM
+	*/
+	private       boolean        cacheTop          = false;
+	// true when D holds the top of the stack, which is then not in RAM and not counted by SP
+	private       boolean        topInD            = false;
+	private       int            spills            = 0;
+	/*
+	translate a push together with the command after it (or the two after it), so that the
+	pushed value goes straight from D into the operation instead of through the stack
+	the push, and a comparison after it, are held back until it is known what follows
+	*/
+	private       boolean        fuse              = false;
+	private       VMCommand      pendingPush;
+	private       VMCommand      pendingComparison;
+	private final int[]          fusions           = new int[Fusion.values().length];
+	// the fusions of the current input file
+	private final int[]          fileFusions       = new int[Fusion.values().length];
 
 	public CodeWriter(File outputFile) throws IOException {
-		bufferedWriter = new BufferedWriter(new FileWriter(outputFile));
+		this(new FileWriter(outputFile));
+	}
+
+	public CodeWriter(Writer writer) {
+		bufferedWriter = new BufferedWriter(writer);
+	}
+
+	// the options of the generated code, set before anything is written
+	public void configure(TranslatorOptions options) {
+		sharedCalls = options.sharedCalls();
+		sharedComparisons = options.sharedComparisons();
+		peephole = options.peepholeRules().isEmpty() ? null : new Peephole(options.peepholeRules());
+		cacheTop = options.cacheTop();
+		fuse = options.fuse();
+	}
+
+	// the ROM words written so far, after peephole optimization
+	public int romWords() {
+		return romWords - (peephole != null ? peephole.removedWords() : 0);
+	}
+
+	/*
+	the ROM words saved by the shared routines, compared to expanding every call, return and
+	comparison inline
+	the routines are written by writeInit, so the saving of a program is the sum over every
+	code writer of the program, and the one of a single class may be larger
+	*/
+	public int romWordsSaved() {
+		int expandedWords = 0;
+		if (sharedCalls) {
+			expandedWords += calls * inlineWords(VMCommand.call("f", 0))
+						     + returns * inlineWords(VMCommand.returnCommand());
+		}
+		if (sharedComparisons) {
+			// eq, gt and lt are expanded to the same number of words
+			expandedWords += comparisons * inlineWords(VMCommand.arithmetic("eq"));
+		}
+		return expandedWords - sharedWords;
+	}
+
+	// what the shared routines and the peephole optimizer did, or null if neither is used
+	public String statistics() {
+		List<String> statistics = new ArrayList<>();
+		if (sharedCalls) {
+			statistics.add(String.format("%d calls and %d returns shared", calls, returns));
+		}
+		if (sharedComparisons) {
+			statistics.add(String.format("%d comparisons shared", comparisons));
+		}
+		if (sharedCalls || sharedComparisons) {
+			statistics.add(String.format("%d ROM words saved", romWordsSaved()));
+		}
+		if (cacheTop) {
+			statistics.add(String.format("top of stack spilled %d times", spills));
+		}
+		if (fuse) {
+			statistics.add(fusionStatistics(fusions));
+		}
+		if (peephole != null) {
+			statistics.add(peephole.statistics());
+		}
+		return statistics.isEmpty() ? null : String.join(", ", statistics);
+	}
+
+	// the statistics of the current input file, null if there are none
+	public String fileStatistics() {
+		return fuse ? fusionStatistics(fileFusions) : null;
+	}
+
+	private static String fusionStatistics(int[] counts) {
+		List<String> statistics = new ArrayList<>();
+		for (Fusion fusion : Fusion.values()) {
+			statistics.add(String.format("%d %s", counts[fusion.ordinal()], fusion.name));
+		}
+		return "fused " + String.join(", ", statistics);
+	}
+
+	// the ROM words of a command when it is expanded inline
+	private static int inlineWords(VMCommand command) {
+		CodeWriter codeWriter = new CodeWriter(Writer.nullWriter());
+		codeWriter.write(command);
+		return codeWriter.romWords;
 	}
 
 	public void setCurrentFileName(String currentFileName) {
+		writePending();
+		spillTop();
+		Arrays.fill(fileFusions, 0);
 		this.currentFileName = currentFileName;
+		enterScope(currentFileName);
 		writeLine(String.format("// ------------ %s ------------", currentFileName));
 	}
 
 	public void writeLine(String text) {
+		if (text != null && !text.isEmpty() && !text.startsWith("//") && !text.startsWith("(")) {
+			romWords++;
+		}
+		if (peephole != null) {
+			if (text == null || !text.startsWith("(")) {
+				peephole.add(text);
+				return;
+			}
+			// a label ends the block
+			flushPeephole();
+		}
+		output(text);
+	}
+
+	private void flushPeephole() {
+		for (String line : peephole.flush()) {
+			output(line);
+		}
+	}
+
+	private void output(String text) {
 		try {
 			if (text != null) {
 				bufferedWriter.write(text + System.lineSeparator());
@@ -32,6 +202,21 @@ public class CodeWriter implements AutoCloseable {
 		}
 	}
 
+	private void enterScope(String scope) {
+		currentScope = scope;
+		labelCounter = 0;
+	}
+
+	// a new label for code generated by the translator
+	private String newLabel(String name) {
+		return String.format("%s$%s.%d", currentScope, name, labelCounter++);
+	}
+
+	// a label written in the VM code
+	private String scopedLabel(String label) {
+		return String.format("%s$%s", currentScope, label);
+	}
+
 	public void popStackInD() {
 		writeLine("@SP");
 		writeLine("M=M-1");
@@ -46,148 +231,419 @@ public class CodeWriter implements AutoCloseable {
 		writeLine("M=D");
 	}
 
-	public void writeArithmetic(String command) {
-		Integer randomInteger = random.nextInt();
+	// pop the top of the stack into D, where it may already be
+	private void popD() {
+		if (topInD) {
+			topInD = false;
+		} else {
+			popStackInD();
+		}
+	}
+
+	// push D, which stays in D when the top of the stack is cached (see spillTop before loading D)
+	private void pushD() {
+		if (cacheTop) {
+			topInD = true;
+		} else {
+			pushDtoStack();
+		}
+	}
 
+	// write the top of the stack to RAM if it is held in D, before D is used for something else
+	private void spillTop() {
+		if (topInD) {
+			pushDtoStack();
+			topInD = false;
+			spills++;
+		}
+	}
+
+	public void write(VMCommand command) {
+		if (fuse) {
+			writeFused(command);
+		} else {
+			writeCommand(command);
+		}
+	}
+
+	private void writeCommand(VMCommand command) {
+		switch (command.type()) {
+			case C_ARITHMETIC -> writeArithmetic(command.arg1());
+			case C_PUSH, C_POP -> writePushPop(command.type(), command.arg1(), command.arg2());
+			case C_LABEL -> writeLabel(command.arg1());
+			case C_GOTO -> writeGoto(command.arg1());
+			case C_IF -> writeIf(command.arg1());
+			case C_FUNCTION -> writeFunction(command.arg1(), command.arg2());
+			case C_RETURN -> writeReturn();
+			case C_CALL -> writeCall(command.arg1(), command.arg2());
+		}
+	}
+
+	/*
+	hold back a push, and a comparison after it, until the command that follows shows whether
+	they can be translated together
+	*/
+	private void writeFused(VMCommand command) {
+		if (pendingPush == null) {
+			if (command.type() == Command.C_PUSH) {
+				pendingPush = command;
+			} else {
+				writeCommand(command);
+			}
+			return;
+		}
+
+		VMCommand push = pendingPush;
+		if (pendingComparison != null) {
+			String comparison = pendingComparison.arg1();
+			pendingPush = null;
+			pendingComparison = null;
+			if (command.type() == Command.C_IF) {
+				writeFusedComparisonBranch(push, comparison, command.arg1());
+			} else {
+				writeFusedComparison(push, comparison);
+				writeFused(command);
+			}
+			return;
+		}
+
+		pendingPush = null;
+		switch (command.type()) {
+			case C_ARITHMETIC -> {
+				if (binaryOperation(command.arg1()) != null) {
+					writeFusedBinary(push, command.arg1());
+				} else if (isComparison(command.arg1())) {
+					pendingPush = push;
+					pendingComparison = command;
+				} else {
+					writeCommand(push);
+					writeCommand(command);
+				}
+			}
+			case C_POP -> writeFusedMove(push, command);
+			case C_IF -> writeFusedBranch(push, command.arg1());
+			case C_PUSH -> {
+				writeCommand(push);
+				pendingPush = command;
+			}
+			default -> {
+				writeCommand(push);
+				writeCommand(command);
+			}
+		}
+	}
+
+	// write what is held back, as it is not followed by a command it can be fused with
+	private void writePending() {
+		if (pendingPush == null) {
+			return;
+		}
+		VMCommand push = pendingPush;
+		pendingPush = null;
+		if (pendingComparison != null) {
+			String comparison = pendingComparison.arg1();
+			pendingComparison = null;
+			writeFusedComparison(push, comparison);
+		} else {
+			writeCommand(push);
+		}
+	}
+
+	private void countFusion(Fusion fusion) {
+		fusions[fusion.ordinal()]++;
+		fileFusions[fusion.ordinal()]++;
+	}
+
+	/*
+	x = x operation y with y pushed: y is loaded into D, x is changed in place
+	a cached x is not spilled, y is taken from its address and the result is left in D
+	*/
+	private void writeFusedBinary(VMCommand push, String command) {
+		writeLine(String.format("// %s + %s", push, command));
+		countFusion(Fusion.BINARY);
+		if (topInD) {
+			writeOperationOnD(push, command);
+			writeLine(null);
+			return;
+		}
+		boolean one = push.arg1().equals("constant") && push.arg2() == 1;
+		if (one && (command.equals("add") || command.equals("sub"))) {
+			writeLine("@SP");
+			writeLine("A=M-1");
+			writeLine(command.equals("add") ? "M=M+1" : "M=M-1");
+		} else {
+			writeLoad(push.arg1(), push.arg2());
+			writeLine("@SP");
+			writeLine("A=M-1");
+			writeLine(String.format("M=%s", binaryOperation(command)));
+		}
+		writeLine(null);
+	}
+
+	// x = x comparison y with y pushed: the result is written as true first, as in the shared routines
+	private void writeFusedComparison(VMCommand push, String command) {
+		if (sharedComparisons) {
+			// the shared routine is shorter
+			writeCommand(push);
+			writeCommand(VMCommand.arithmetic(command));
+			return;
+		}
+		writeLine(String.format("// %s + %s", push, command));
+		countFusion(Fusion.COMPARISON);
+		if (topInD) {
+			// x - y in D, then the truth value as in writeComparison
+			writeOperationOnD(push, "sub");
+			String trueLabel = newLabel(command.toUpperCase());
+			String resultLabel = newLabel("RESULT");
+			writeLine(String.format("@%s", trueLabel));
+			writeLine(String.format("D;J%s", command.toUpperCase()));
+			writeLine("D=0");
+			writeLine(String.format("@%s", resultLabel));
+			writeLine("0;JMP");
+			writeLine(String.format("(%s)", trueLabel));
+			writeLine("D=-1");
+			writeLine(String.format("(%s)", resultLabel));
+			writeLine(null);
+			return;
+		}
+		writeLoad(push.arg1(), push.arg2());
+		writeLine("@SP");
+		writeLine("A=M-1");
+		writeLine("D=M-D");
+		writeLine("M=-1");
+		String resultLabel = newLabel(command.toUpperCase());
+		writeLine(String.format("@%s", resultLabel));
+		writeLine(String.format("D;J%s", command.toUpperCase()));
+		writeLine("@SP");
+		writeLine("A=M-1");
+		writeLine("M=0");
+		writeLine(String.format("(%s)", resultLabel));
+		writeLine(null);
+	}
+
+	// if-goto on x comparison y with y pushed: jump on x - y without computing the truth value
+	private void writeFusedComparisonBranch(VMCommand push, String command, String label) {
+		writeLine(String.format("// %s + %s + if-goto %s", push, command, label));
+		countFusion(Fusion.COMPARISON_BRANCH);
+		boolean zero = push.arg1().equals("constant") && push.arg2() == 0;
+		if (topInD) {
+			// x is consumed, what is left of the stack is in RAM at the jump
+			topInD = false;
+			if (!zero) {
+				writeOperationOnD(push, "sub");
+			}
+			writeLine(String.format("@%s", scopedLabel(label)));
+			writeLine(String.format("D;J%s", command.toUpperCase()));
+			writeLine(null);
+			return;
+		}
+		if (!zero) {
+			writeLoad(push.arg1(), push.arg2());
+		}
+		writeLine("@SP");
+		writeLine("AM=M-1");
+		writeLine(zero ? "D=M" : "D=M-D");
+		writeLine(String.format("@%s", scopedLabel(label)));
+		writeLine(String.format("D;J%s", command.toUpperCase()));
+		writeLine(null);
+	}
+
+	/*
+	pop y after push x: x is loaded into D and stored at y
+	a cached top is spilled, which costs what the push alone would
+	*/
+	private void writeFusedMove(VMCommand push, VMCommand pop) {
+		spillTop();
+		writeLine(String.format("// %s + %s", push, pop));
+		countFusion(Fusion.MOVE);
+		writeLoad(push.arg1(), push.arg2());
+		writeAddressKeepingD(pop.arg1(), pop.arg2());
+		writeLine("M=D");
+		writeLine(null);
+	}
+
+	/*
+	if-goto after push x: jump on x without going through the stack
+	a cached top is spilled, as for writeFusedMove
+	*/
+	private void writeFusedBranch(VMCommand push, String label) {
+		spillTop();
+		writeLine(String.format("// %s + if-goto %s", push, label));
+		countFusion(Fusion.BRANCH);
+		writeLoad(push.arg1(), push.arg2());
+		writeLine(String.format("@%s", scopedLabel(label)));
+		writeLine("D;JNE");
+		writeLine(null);
+	}
+
+	// D = D operation y, for x cached in D and y the value of push, loaded with A only
+	private void writeOperationOnD(VMCommand push, String command) {
+		String operator = switch (command) {
+			case "add" -> "+";
+			case "sub" -> "-";
+			case "and" -> "&";
+			case "or" -> "|";
+			default -> throw new Error("invalid binary operator " + command);
+		};
+		if (push.arg1().equals("constant")) {
+			if (push.arg2() == 1 && (command.equals("add") || command.equals("sub"))) {
+				writeLine(String.format("D=D%s1", operator));
+			} else {
+				writeLine(String.format("@%d", push.arg2()));
+				writeLine(String.format("D=D%sA", operator));
+			}
+		} else {
+			writeAddressKeepingD(push.arg1(), push.arg2());
+			writeLine(String.format("D=D%sM", operator));
+		}
+	}
+
+	// the computation of x operation y from M (x) and D (y), or null if command is not a binary operator
+	private static String binaryOperation(String command) {
+		return switch (command) {
+			case "add" -> "M+D";
+			case "sub" -> "M-D";
+			case "and" -> "D&M";
+			case "or" -> "D|M";
+			default -> null;
+		};
+	}
+
+	private static boolean isComparison(String command) {
+		return command.equals("eq") || command.equals("gt") || command.equals("lt");
+	}
+
+	public void writeArithmetic(String command) {
 		// page 67/80
 		writeLine(String.format("// %s", command));
 		switch (command) {
-			case "add":
-				popStackInD();
-				writeLine("@SP");
-				writeLine("A=M-1");
-				writeLine("M=M+D");
-				writeLine(null);
-				break;
-			case "sub":
-				popStackInD();
-				writeLine("@SP");
-				writeLine("A=M-1");
-				writeLine("M=M-D");
-				writeLine(null);
-				break;
-			case "neg":
-				writeLine("@SP");
-				writeLine("A=M-1");
-				writeLine("M=-M");
-				writeLine(null);
-				break;
-			case "eq":
-				// The VM represents true and false as -1 and 0 respectively
-				popStackInD();
-				writeLine("@SP");
-				writeLine("A=M-1");
-				writeLine("D=M-D");
-				writeLine(String.format("@EQ%d", randomInteger));
-				writeLine("D;JEQ");
-				writeLine("D=0");
-				writeLine(String.format("@RESULT%d", randomInteger));
-				writeLine("0;JMP");
-				writeLine(String.format("(EQ%d)", randomInteger));
-				writeLine("D=-1");
-				writeLine(String.format("(RESULT%d)", randomInteger));
-				writeLine("@SP");
-				writeLine("A=M-1");
-				writeLine("M=D");
-				writeLine(null);
-				break;
-			case "gt":
-				popStackInD();
-				writeLine("@SP");
-				writeLine("A=M-1");
-				writeLine("D=M-D");
-				writeLine(String.format("@GT%d", randomInteger));
-				writeLine("D;JGT");
-				writeLine("D=0");
-				writeLine(String.format("@RESULT%d", randomInteger));
-				writeLine("0;JMP");
-				writeLine(String.format("(GT%d)", randomInteger));
-				writeLine("D=-1");
-				writeLine(String.format("(RESULT%d)", randomInteger));
-				writeLine("@SP");
-				writeLine("A=M-1");
-				writeLine("M=D");
-				writeLine(null);
-				break;
-			case "lt":
-				popStackInD();
-				writeLine("@SP");
-				writeLine("A=M-1");
-				writeLine("D=M-D");
-				writeLine(String.format("@LT%d", randomInteger));
-				writeLine("D;JLT");
-				writeLine("D=0");
-				writeLine(String.format("@RESULT%d", randomInteger));
-				writeLine("0;JMP");
-				writeLine(String.format("(LT%d)", randomInteger));
-				writeLine("D=-1");
-				writeLine(String.format("(RESULT%d)", randomInteger));
-				writeLine("@SP");
-				writeLine("A=M-1");
-				writeLine("M=D");
-				writeLine(null);
-				break;
-			case "and":
-				popStackInD();
-				writeLine("@SP");
-				writeLine("A=M-1");
-				writeLine("M=D&M");
-				writeLine(null);
-				break;
-			case "or":
-				popStackInD();
-				writeLine("@SP");
-				writeLine("A=M-1");
-				writeLine("M=D|M");
-				writeLine(null);
-				break;
-			case "not":
-				writeLine("@SP");
-				writeLine("A=M-1");
-				writeLine("M=!M");
-				writeLine(null);
-				break;
-			default:
-				break;
+			case "add", "sub", "and", "or" -> writeBinary(binaryOperation(command));
+			case "neg" -> writeUnary("-");
+			case "not" -> writeUnary("!");
+			// The VM represents true and false as -1 and 0 respectively
+			case "eq" -> writeComparison(command, "JEQ");
+			case "gt" -> writeComparison(command, "JGT");
+			case "lt" -> writeComparison(command, "JLT");
+			default -> {
+			}
 		}
 	}
 
+	// x = x operation y, where operation is computed from M (x) and D (y)
+	private void writeBinary(String operation) {
+		popD();
+		writeLine("@SP");
+		if (cacheTop) {
+			writeLine("AM=M-1");
+			writeLine(String.format("D=%s", operation));
+			pushD();
+		} else {
+			writeLine("A=M-1");
+			writeLine(String.format("M=%s", operation));
+		}
+		writeLine(null);
+	}
+
+	private void writeUnary(String operator) {
+		if (topInD) {
+			writeLine(String.format("D=%sD", operator));
+		} else {
+			writeLine("@SP");
+			writeLine("A=M-1");
+			writeLine(String.format("M=%sM", operator));
+		}
+		writeLine(null);
+	}
+
+	// x = x - y compared to 0 with jump, where y is the top of the stack and x the one below
+	private void writeComparison(String command, String jump) {
+		comparisons++;
+		if (sharedComparisons) {
+			// the return address is passed in D, the routine finds the operands in RAM
+			spillTop();
+			String returnLabel = newLabel("ret");
+			int start = romWords;
+			writeLine(String.format("@%s", returnLabel));
+			writeLine("D=A");
+			writeLine(String.format("@$$%s", command.toUpperCase()));
+			writeLine("0;JMP");
+			sharedWords += romWords - start;
+			writeLine(String.format("(%s)", returnLabel));
+			writeLine(null);
+			return;
+		}
+
+		popD();
+		writeLine("@SP");
+		writeLine(cacheTop ? "AM=M-1" : "A=M-1");
+		writeLine("D=M-D");
+		String trueLabel = newLabel(command.toUpperCase());
+		String resultLabel = newLabel("RESULT");
+		writeLine(String.format("@%s", trueLabel));
+		writeLine(String.format("D;%s", jump));
+		writeLine("D=0");
+		writeLine(String.format("@%s", resultLabel));
+		writeLine("0;JMP");
+		writeLine(String.format("(%s)", trueLabel));
+		writeLine("D=-1");
+		writeLine(String.format("(%s)", resultLabel));
+		if (cacheTop) {
+			pushD();
+		} else {
+			writeLine("@SP");
+			writeLine("A=M-1");
+			writeLine("M=D");
+		}
+		writeLine(null);
+	}
+
+	/*
+	the shared routine of a comparison, entered with the return address in D, which is kept
+	in R15
+	the result is written as true first and overwritten with false if the jump is not taken
+	*/
+	private void writeComparisonRoutine(String command, String jump) {
+		String routine = String.format("$$%s", command.toUpperCase());
+		writeLine(String.format("// shared %s routine", command));
+		writeLine(String.format("(%s)", routine));
+		int start = romWords;
+		writeLine("@R15");
+		writeLine("M=D");
+		writeLine("@SP");
+		writeLine("AM=M-1");
+		writeLine("D=M");
+		writeLine("A=A-1");
+		writeLine("D=M-D");
+		writeLine("M=-1");
+		writeLine(String.format("@%s.RETURN", routine));
+		writeLine(String.format("D;%s", jump));
+		writeLine("@SP");
+		writeLine("A=M-1");
+		writeLine("M=0");
+		writeLine(String.format("(%s.RETURN)", routine));
+		writeLine("@R15");
+		writeLine("A=M");
+		writeLine("0;JMP");
+		sharedWords += romWords - start;
+		writeLine(null);
+	}
+
 	public void writePushPop(Command command, String segment, Integer index) {
 		writeLine(String.format("// %s %s %d", command, segment, index));
 
 		if (command.equals(Command.C_PUSH)) {
-			if (segment.equals("constant")) {
-				writeLine(String.format("@%d", index));
-				writeLine("D=A");
-			} else if (segment.equals("static")) {
-				writeLine(String.format("@%s", segmentResolver(segment, index)));
-				writeLine("D=M");
-			} else {
-				if (index > 0) {
-					writeLine(String.format("@%d", index));
-					writeLine("D=A");
-				}
-				writeLine(String.format("@%s", segmentResolver(segment, index)));
-				if (segment.equals("temp") || segment.equals("pointer")) {
-					if (index > 0) {
-						writeLine("A=D+A");
-					}
-				} else {
-					if (index > 0) {
-						writeLine("A=M+D");
-					} else {
-						writeLine(String.format("A=M"));
-					}
-				}
-				writeLine("D=M");
-			}
-			pushDtoStack();
+			spillTop();
+			writeLoad(segment, index);
+			pushD();
 			writeLine(null);
 
 		} else if (command.equals(Command.C_POP)) {
 			if (segment.equals("static")) {
-				popStackInD();
+				popD();
 				writeLine(String.format("@%s", segmentResolver(segment, index)));
+			} else if (topInD) {
+				topInD = false;
+				writeAddressKeepingD(segment, index);
 			} else {
 				if (segment.equals("temp") || segment.equals("pointer")) {
 					writeLine(String.format("@%s", segmentResolver(segment, index)));
@@ -210,6 +666,64 @@ public class CodeWriter implements AutoCloseable {
 		}
 	}
 
+	// load the value of segment index into D
+	private void writeLoad(String segment, int index) {
+		if (segment.equals("constant")) {
+			writeLine(String.format("@%d", index));
+			writeLine("D=A");
+		} else if (segment.equals("static")) {
+			writeLine(String.format("@%s", segmentResolver(segment, index)));
+			writeLine("D=M");
+		} else {
+			if (index > 0) {
+				writeLine(String.format("@%d", index));
+				writeLine("D=A");
+			}
+			writeLine(String.format("@%s", segmentResolver(segment, index)));
+			if (segment.equals("temp") || segment.equals("pointer")) {
+				if (index > 0) {
+					writeLine("A=D+A");
+				}
+			} else {
+				if (index > 0) {
+					writeLine("A=M+D");
+				} else {
+					writeLine(String.format("A=M"));
+				}
+			}
+			writeLine("D=M");
+		}
+	}
+
+	// load the address of segment index into A, without changing D
+	private void writeAddressKeepingD(String segment, int index) {
+		if (segment.equals("static")) {
+			writeLine(String.format("@%s", segmentResolver(segment, index)));
+		} else if (segment.equals("temp") || segment.equals("pointer")) {
+			writeLine(String.format("@%d", Integer.parseInt(segmentResolver(segment, index)) + index));
+		} else if (index <= MAX_ADDRESS_INCREMENTS) {
+			writeLine(String.format("@%s", segmentResolver(segment, index)));
+			writeLine("A=M");
+			for (int i = 0; i < index; i++) {
+				writeLine("A=A+1");
+			}
+		} else {
+			// the value in R13 while the address is computed in D and kept in R14
+			writeLine("@R13");
+			writeLine("M=D");
+			writeLine(String.format("@%s", segmentResolver(segment, index)));
+			writeLine("D=M");
+			writeLine(String.format("@%d", index));
+			writeLine("D=D+A");
+			writeLine("@R14");
+			writeLine("M=D");
+			writeLine("@R13");
+			writeLine("D=M");
+			writeLine("@R14");
+			writeLine("A=M");
+		}
+	}
+
 	public String segmentResolver(String segment, Integer index) {
 		// page 142-143
 		switch (segment) {
@@ -244,6 +758,16 @@ public class CodeWriter implements AutoCloseable {
 
 		// call Sys.init
 		writeCall("Sys.init", 0);
+
+		if (sharedCalls) {
+			writeCallRoutine();
+			writeReturnRoutine();
+		}
+		if (sharedComparisons) {
+			writeComparisonRoutine("eq", "JEQ");
+			writeComparisonRoutine("gt", "JGT");
+			writeComparisonRoutine("lt", "JLT");
+		}
 	}
 
 	public void writeLabel(String label) {
@@ -255,7 +779,8 @@ public class CodeWriter implements AutoCloseable {
 		 * underscore (_), dot (.), and colon (:) that does not begin with a digit.
 		 */
 		writeLine(String.format("// label %s", label));
-		writeLine(String.format("(%s)", label));
+		spillTop();
+		writeLine(String.format("(%s)", scopedLabel(label)));
 		writeLine(null);
 	}
 
@@ -266,7 +791,8 @@ public class CodeWriter implements AutoCloseable {
 		 * destination must be located in the same function.
 		 */
 		writeLine(String.format("// goto %s", label));
-		writeLine(String.format("@%s", label));
+		spillTop();
+		writeLine(String.format("@%s", scopedLabel(label)));
 		writeLine("0;JMP");
 		writeLine(null);
 	}
@@ -280,9 +806,9 @@ public class CodeWriter implements AutoCloseable {
 		 * located in the same function.
 		 */
 		writeLine(String.format("// if-goto %s", label));
-		popStackInD();
+		popD();
 		// jump if not zero
-		writeLine(String.format("@%s", label));
+		writeLine(String.format("@%s", scopedLabel(label)));
 		writeLine("D;JNE");
 		writeLine(null);
 	}
@@ -292,15 +818,64 @@ public class CodeWriter implements AutoCloseable {
 		 * push return-address - push LCL - push ARG - push THIS - push THAT - ARG =
 		 * SP-n-5 - LCL = SP - goto f - (return-address) -
 		 */
-		Integer randomInteger = Math.abs(random.nextInt());
+		String returnLabel = newLabel("ret");
 
 		writeLine(String.format("// call %s %d", functionName, numArgs));
+		spillTop();
+		calls++;
+		if (sharedCalls) {
+			int start = romWords;
+			// R13 = f, R14 = n, R15 = return-address, goto $$CALL
+			writeLine(String.format("@%s", functionName));
+			writeLine("D=A");
+			writeLine("@R13");
+			writeLine("M=D");
+			if (numArgs == 0 || numArgs == 1) {
+				writeLine("@R14");
+				writeLine(String.format("M=%d", numArgs));
+			} else {
+				writeLine(String.format("@%d", numArgs));
+				writeLine("D=A");
+				writeLine("@R14");
+				writeLine("M=D");
+			}
+			writeLine(String.format("@%s", returnLabel));
+			writeLine("D=A");
+			writeLine("@R15");
+			writeLine("M=D");
+			writeLine("@$$CALL");
+			writeLine("0;JMP");
+			sharedWords += romWords - start;
+		} else {
+			writeCallFrame(String.format("@%s", returnLabel), String.format("@%d", numArgs),
+						   String.format("@%s", functionName), false);
+		}
+		writeLine(null);
 
+		// (return-address)
+		writeLine(String.format("(%s)", returnLabel));
+		writeLine(null);
+	}
+
+	// the shared part of every call, with the function, n and the return address in R13, R14 and R15
+	private void writeCallRoutine() {
+		writeLine("// shared call routine");
+		writeLine("($$CALL)");
+		int start = romWords;
+		writeCallFrame("@R15", "@R14", "@R13", true);
+		sharedWords += romWords - start;
+		writeLine(null);
+	}
+
+	/*
+	push the frame of the caller, set ARG and LCL and jump to the function
+	the return address, n and the function are loaded with the given A-instructions, they are
+	the values themselves when inline, or the registers holding them when inRegisters
+	*/
+	private void writeCallFrame(String returnAddress, String numArgs, String function, boolean inRegisters) {
 		// push return-address
-		// create new symbol and get address
-		// the return label is a random integer
-		writeLine(String.format("@R%d", randomInteger));
-		writeLine("D=A");
+		writeLine(returnAddress);
+		writeLine(inRegisters ? "D=M" : "D=A");
 		pushDtoStack();
 
 		// push LCL, ARG, THIS, and THAT on the stack
@@ -320,8 +895,8 @@ public class CodeWriter implements AutoCloseable {
 		// ARG = SP-n-5
 		writeLine("@SP");
 		writeLine("D=M");
-		writeLine(String.format("@%d", numArgs));
-		writeLine("D=D-A");
+		writeLine(numArgs);
+		writeLine(inRegisters ? "D=D-M" : "D=D-A");
 		writeLine("@5");
 		writeLine("D=D-A");
 		writeLine("@ARG");
@@ -333,11 +908,12 @@ public class CodeWriter implements AutoCloseable {
 		writeLine("@LCL");
 		writeLine("M=D");
 
-		writeGoto(functionName);
-
-		// the return label is a random integer
-		writeLabel(String.format("R%d", randomInteger));
-		writeLine(null);
+		// goto f
+		writeLine(function);
+		if (inRegisters) {
+			writeLine("A=M");
+		}
+		writeLine("0;JMP");
 	}
 
 	public void writeReturn() {
@@ -346,7 +922,30 @@ public class CodeWriter implements AutoCloseable {
 		 * *(FRAME-2) ARG = *(FRAME-3) LCL = *(FRAME-4) goto RET
 		 */
 		writeLine("// return");
+		spillTop();
+		returns++;
+		if (sharedCalls) {
+			writeLine("@$$RETURN");
+			writeLine("0;JMP");
+			sharedWords += 2;
+		} else {
+			writeReturnFrame();
+		}
+		writeLine(null);
+	}
+
+	// the shared part of every return
+	private void writeReturnRoutine() {
+		writeLine("// shared return routine");
+		writeLine("($$RETURN)");
+		int start = romWords;
+		writeReturnFrame();
+		sharedWords += romWords - start;
+		writeLine(null);
+	}
 
+	// restore the frame of the caller and jump to the return address
+	private void writeReturnFrame() {
 		// FRAME = LCL
 		writeLine("@LCL");
 		writeLine("D=M");
@@ -413,21 +1012,38 @@ public class CodeWriter implements AutoCloseable {
 		writeLine("@RET");
 		writeLine("A=M");
 		writeLine("0;JMP");
-
-		writeLine(null);
 	}
 
 	public void writeFunction(String functionName, Integer numLocals) {
 		writeLine(String.format("// function %s %d\n", functionName, numLocals));
-		writeLabel(functionName);
+		spillTop();
+		enterScope(functionName);
+		writeLine(String.format("(%s)", functionName));
+		writeLine(null);
 		for (int i = 0; i < numLocals; i++) {
 			writePushPop(Command.C_PUSH, "constant", 0);
 		}
 		writeLine(null);
 	}
 
+	// write what is buffered, the peephole optimizer ends its block here
+	public void flush() throws IOException {
+		writePending();
+		spillTop();
+		if (peephole != null) {
+			flushPeephole();
+		}
+		bufferedWriter.flush();
+	}
+
 	@Override
 	public void close() throws IOException {
+		writePending();
+		spillTop();
+		// closing again is allowed, it finds nothing buffered
+		if (peephole != null) {
+			flushPeephole();
+		}
 		bufferedWriter.close();
 	}
 }
@@ -2,6 +2,7 @@ import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.Reader;
 import java.util.Arrays;
 import java.util.List;
 
@@ -12,7 +13,11 @@ public class Parser implements AutoCloseable {
 	private       String         nextCommand;
 
 	public Parser(File inputFile) throws IOException {
-		bufferedReader = new BufferedReader(new FileReader(inputFile));
+		this(new FileReader(inputFile));
+	}
+
+	public Parser(Reader reader) {
+		bufferedReader = new BufferedReader(reader);
 	}
 
 	public boolean hasMoreCommands() throws IOException {
@@ -31,7 +36,6 @@ public class Parser implements AutoCloseable {
 		} else {
 			currentCommand = Arrays.asList(nextCommand.trim().split(" "));
 		}
-		System.out.println(currentCommand);
 	}
 
 	public Command commandType() {
@@ -85,6 +89,10 @@ public class Parser implements AutoCloseable {
 		}
 	}
 
+	public VMCommand command() {
+		return new VMCommand(commandType(), arg1(), arg2());
+	}
+
 	@Override
 	public void close() throws IOException {
 		bufferedReader.close();
@@ -0,0 +1,291 @@
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+
+/*
+peephole optimization of the Hack assembly of a CodeWriter (Translator --peephole)
+the code writer buffers the lines between two labels, a label being a jump target where
+nothing is known about the registers, and the rules rewrite the instructions of the block
+before it is written
+comments and blank lines are kept, the rules only look at the instructions between them
+*/
+public class Peephole {
+
+	public enum Rule {
+		// a push directly followed by a pop into D: the value is already in D
+		PUSH_POP("push-pop"),
+		// the SP increment of a push and the decrement of the pop that takes the value again
+		DEAD_SP("dead-sp"),
+		// loading an address into A that A already holds
+		REDUNDANT_LOAD("redundant-load"),
+		// D=M after M=D, or M=D after D=M, with the same A, also across a reload of that address
+		REDUNDANT_MOVE("redundant-move");
+
+		private final String name;
+
+		Rule(String name) {
+			this.name = name;
+		}
+
+		public String ruleName() {
+			return name;
+		}
+	}
+
+	private static final List<String> PUSH_D = List.of("@SP", "M=M+1", "A=M-1", "M=D");
+	private static final List<String> POP_D  = List.of("@SP", "M=M-1", "A=M", "D=M");
+
+	private final Set<Rule>    rules;
+	private final int[]        hits  = new int[Rule.values().length];
+	// the lines of the current block
+	private final List<String> block = new ArrayList<>();
+	private       int          removedWords;
+
+	public Peephole(Set<Rule> rules) {
+		this.rules = rules;
+	}
+
+	/*
+	the rules of a comma separated list of rule names, or every rule for all
+	unknown names are reported by throwing an Error
+	*/
+	public static Set<Rule> parse(String names) {
+		if (names.equals("all")) {
+			return EnumSet.allOf(Rule.class);
+		}
+		Set<Rule> rules = EnumSet.noneOf(Rule.class);
+		for (String name : names.split(",")) {
+			if (name.isEmpty()) {
+				continue;
+			}
+			Rule rule = null;
+			for (Rule candidate : Rule.values()) {
+				if (candidate.ruleName().equals(name)) {
+					rule = candidate;
+				}
+			}
+			if (rule == null) {
+				throw new Error("unknown peephole rule " + name);
+			}
+			rules.add(rule);
+		}
+		return rules;
+	}
+
+	// a line of the current block, null for a blank line
+	public void add(String line) {
+		block.add(line != null ? line : "");
+	}
+
+	// the optimized lines of the current block, which is then started again
+	public List<String> flush() {
+		if (rules.contains(Rule.PUSH_POP)) {
+			removePushPop();
+		}
+		if (rules.contains(Rule.DEAD_SP)) {
+			removeDeadSP();
+		}
+		if (rules.contains(Rule.REDUNDANT_LOAD)) {
+			removeRedundantLoads();
+		}
+		if (rules.contains(Rule.REDUNDANT_MOVE)) {
+			removeRedundantMoves();
+		}
+		List<String> lines = new ArrayList<>();
+		for (String line : block) {
+			if (line != null) {
+				lines.add(line);
+			}
+		}
+		block.clear();
+		return lines;
+	}
+
+	public int removedWords() {
+		return removedWords;
+	}
+
+	public String statistics() {
+		StringBuilder statistics = new StringBuilder("peephole:");
+		for (Rule rule : rules) {
+			statistics.append(String.format(" %s %d,", rule.ruleName(), hits[rule.ordinal()]));
+		}
+		return statistics.append(String.format(" %d words removed", removedWords)).toString();
+	}
+
+	/*
+	the positions in the block of the instructions that are left
+	removed lines are set to null
+	*/
+	private List<Integer> instructions() {
+		List<Integer> instructions = new ArrayList<>();
+		for (int i = 0; i < block.size(); i++) {
+			String line = block.get(i);
+			if (line != null && !line.isEmpty() && !line.startsWith("//")) {
+				instructions.add(i);
+			}
+		}
+		return instructions;
+	}
+
+	private String instruction(List<Integer> instructions, int i) {
+		return block.get(instructions.get(i));
+	}
+
+	private boolean matches(List<Integer> instructions, int i, List<String> pattern) {
+		if (i + pattern.size() > instructions.size()) {
+			return false;
+		}
+		for (int k = 0; k < pattern.size(); k++) {
+			if (!instruction(instructions, i + k).equals(pattern.get(k))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private void remove(List<Integer> instructions, int i) {
+		block.set(instructions.get(i), null);
+		removedWords++;
+	}
+
+	/*
+	push D; pop D leaves D and SP as they were
+	the next instruction must load A, as it is left at a different address
+	*/
+	private void removePushPop() {
+		List<Integer> instructions = instructions();
+		for (int i = 0; i + 8 < instructions.size(); i++) {
+			if (matches(instructions, i, PUSH_D) && matches(instructions, i + 4, POP_D)
+				&& instruction(instructions, i + 8).startsWith("@")) {
+				for (int k = i; k < i + 8; k++) {
+					remove(instructions, k);
+				}
+				hits[Rule.PUSH_POP.ordinal()]++;
+				i += 7;
+			}
+		}
+	}
+
+	/*
+	push D; code; pop D, where the code does not use SP, stores the value at SP and loads it
+	again without moving SP
+	the code must not jump, and only write to addresses it loads with an A-instruction, so that
+	it can not write to the stack
+	*/
+	private void removeDeadSP() {
+		List<Integer> instructions = instructions();
+		for (int i = 0; i < instructions.size(); i++) {
+			if (!matches(instructions, i, PUSH_D)) {
+				continue;
+			}
+			int j = i + PUSH_D.size();
+			boolean addressLoaded = false;
+			while (j < instructions.size() && !matches(instructions, j, POP_D)) {
+				String instruction = instruction(instructions, j);
+				if (instruction.equals("@SP") || instruction.equals("@0") || instruction.contains(";")
+					|| isAssignmentTo(instruction, 'M') && !addressLoaded) {
+					break;
+				}
+				addressLoaded = instruction.startsWith("@");
+				j++;
+			}
+			if (matches(instructions, j, POP_D)) {
+				remove(instructions, i + 1);
+				block.set(instructions.get(i + 2), "A=M");
+				remove(instructions, j + 1);
+				hits[Rule.DEAD_SP.ordinal()]++;
+				i = j + POP_D.size() - 1;
+			}
+		}
+	}
+
+	/*
+	A is known to hold an address after @X, and the address stored at X (or one below it)
+	after @X; A=M (or A=M-1), as long as A is not assigned again
+	memory is only written at the address in A, so X itself can only change after @X, which
+	makes what is known about A the address X
+	*/
+	private void removeRedundantLoads() {
+		List<Integer> instructions = instructions();
+		String address = null;
+		for (int i = 0; i < instructions.size(); i++) {
+			String instruction = instruction(instructions, i);
+			if (instruction.startsWith("@")) {
+				String next = i + 1 < instructions.size() ? instruction(instructions, i + 1) : "";
+				String loaded = indirect(instruction.substring(1), next);
+				if (loaded != null && loaded.equals(address)) {
+					remove(instructions, i);
+					remove(instructions, i + 1);
+					hits[Rule.REDUNDANT_LOAD.ordinal()]++;
+					i++;
+				} else if (instruction.substring(1).equals(address)) {
+					remove(instructions, i);
+					hits[Rule.REDUNDANT_LOAD.ordinal()]++;
+				} else {
+					address = instruction.substring(1);
+				}
+			} else if (isAssignmentTo(instruction, 'A')) {
+				address = address != null && !address.startsWith("*") ? indirect(address, instruction) : null;
+			}
+		}
+	}
+
+	// the address loaded from X by A=M or A=M-1, or null
+	private static String indirect(String address, String instruction) {
+		return switch (instruction) {
+			case "A=M" -> "*" + address;
+			case "A=M-1" -> "*" + address + "-1";
+			default -> null;
+		};
+	}
+
+	/*
+	the second of M=D and D=M is dropped as D and M already hold the same value
+	the code writer puts an address load between them, as a push or pop loads its address
+	again, so the moves may be separated by a load of the address A already holds, which is
+	tracked as in removeRedundantLoads and left for that rule to remove
+	*/
+	private void removeRedundantMoves() {
+		List<Integer> instructions = instructions();
+		String address = null;
+		for (int i = 0; i + 1 < instructions.size(); i++) {
+			String instruction = instruction(instructions, i);
+			if (instruction.equals("M=D") || instruction.equals("D=M")) {
+				int next = i + 1 + reloadLength(instructions, i + 1, address);
+				if (next < instructions.size()
+					&& instruction(instructions, next).equals(instruction.equals("M=D") ? "D=M" : "M=D")) {
+					remove(instructions, next);
+					hits[Rule.REDUNDANT_MOVE.ordinal()]++;
+					i = next;
+					continue;
+				}
+			}
+			if (instruction.startsWith("@")) {
+				address = instruction.substring(1);
+			} else if (isAssignmentTo(instruction, 'A')) {
+				address = address != null && !address.startsWith("*") ? indirect(address, instruction) : null;
+			}
+		}
+	}
+
+	// the number of instructions from i that load the address A already holds, 0 if they do not
+	private int reloadLength(List<Integer> instructions, int i, String address) {
+		if (address == null || i >= instructions.size() || !instruction(instructions, i).startsWith("@")) {
+			return 0;
+		}
+		String loaded = instruction(instructions, i).substring(1);
+		if (loaded.equals(address)) {
+			return 1;
+		}
+		String next = i + 1 < instructions.size() ? instruction(instructions, i + 1) : "";
+		return address.equals(indirect(loaded, next)) ? 2 : 0;
+	}
+
+	// true if the C-instruction assigns to register (A, D or M)
+	private static boolean isAssignmentTo(String instruction, char register) {
+		int equals = instruction.indexOf('=');
+		return !instruction.startsWith("@") && equals > 0 && instruction.substring(0, equals).indexOf(register) >= 0;
+	}
+}
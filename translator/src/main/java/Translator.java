@@ -1,7 +1,10 @@
 import java.io.File;
 import java.io.IOException;
+import java.io.PrintStream;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Comparator;
 
 public class Translator {
 	static final Path OUTPUT_DIRECTORY = Paths.get("")
@@ -9,13 +12,37 @@ public class Translator {
 											  .resolve("translated_files");
 
 	public static void main(String[] args) throws IOException {
-		if (args.length < 1) {
-			error("please provide a file or directory argument");
+		try {
+			translate(args, System.out);
+		} catch (Error e) {
+			error(e.getMessage());
+		}
+	}
+
+	/*
+	translate the file or directory given in args, printing the statistics to out
+	invalid arguments are reported by throwing an Error with the message, so that a
+	long-running process (see Server in the compiler) can serve more requests afterwards
+	*/
+	public static void translate(String[] args, PrintStream out) throws IOException {
+		String inputPath = null;
+		TranslatorOptions options = new TranslatorOptions();
+		for (String arg : args) {
+			if (options.parse(arg)) {
+				// an option of the generated code, see TranslatorOptions
+			} else if (arg.startsWith("--")) {
+				throw new Error("unknown option " + arg);
+			} else {
+				inputPath = arg;
+			}
+		}
+		if (inputPath == null) {
+			throw new Error("please provide a file or directory argument");
 		}
 
-		File fileOrDirectory = new File(args[0]);
+		File fileOrDirectory = new File(inputPath);
 		if (!fileOrDirectory.exists()) {
-			error("the specified file or directory does not exist");
+			throw new Error("the specified file or directory does not exist");
 		}
 
 		String outputFileName;
@@ -23,7 +50,7 @@ public class Translator {
 			outputFileName = fileOrDirectory.getName() + ".asm";
 		} else {
 			if (!fileOrDirectory.getName().endsWith(".vm")) {
-				error("the file specified is invalid");
+				throw new Error("the file specified is invalid");
 			}
 			outputFileName = fileOrDirectory.getName().replace(".vm", ".asm");
 		}
@@ -35,59 +62,46 @@ public class Translator {
 		}
 
 		try (CodeWriter codeWriter = new CodeWriter(new File(outputFile.toString()))) {
+			codeWriter.configure(options);
 			codeWriter.writeInit();
 
 			if (fileOrDirectory.isDirectory()) {
-				for (File currentFile : fileOrDirectory.listFiles()) {
+				// sorted, so that the output does not depend on the directory order
+				File[] files = fileOrDirectory.listFiles();
+				Arrays.sort(files, Comparator.comparing(File::getName));
+				for (File currentFile : files) {
 					if (currentFile.getName().endsWith(".vm")) {
 						parseWrite(codeWriter, currentFile);
+						printFileStatistics(out, codeWriter, currentFile);
 					}
 				}
 			} else if (fileOrDirectory.isFile()) {
 				parseWrite(codeWriter, fileOrDirectory);
+				printFileStatistics(out, codeWriter, fileOrDirectory);
+			}
+			if (codeWriter.statistics() != null) {
+				// the last block is still buffered, so that the peephole counts are complete
+				codeWriter.flush();
+				out.printf("%s: %d ROM words, %s%n", outputFileName, codeWriter.romWords(), codeWriter.statistics());
 			}
 		}
 	}
 
-	private static void parseWrite(CodeWriter codeWriter, File file) throws IOException {
+	// the statistics of the file just translated, if there are any
+	private static void printFileStatistics(PrintStream out, CodeWriter codeWriter, File file) {
+		if (codeWriter.fileStatistics() != null) {
+			out.printf("%s: %s%n", file.getName(), codeWriter.fileStatistics());
+		}
+	}
+
+	static void parseWrite(CodeWriter codeWriter, File file) throws IOException {
 		File readFile = new File(String.valueOf(file));
 		try (Parser parser = new Parser(readFile)) {
 			codeWriter.setCurrentFileName(file.getName());
 
 			while (parser.hasMoreCommands()) {
 				parser.advance();
-
-				switch (parser.commandType()) {
-					case C_ARITHMETIC:
-						codeWriter.writeArithmetic(parser.arg1());
-						break;
-					case C_PUSH:
-						codeWriter.writePushPop(Command.C_PUSH, parser.arg1(), parser.arg2());
-						break;
-					case C_POP:
-						codeWriter.writePushPop(Command.C_POP, parser.arg1(), parser.arg2());
-						break;
-					case C_LABEL:
-						codeWriter.writeLabel(parser.arg1());
-						break;
-					case C_GOTO:
-						codeWriter.writeGoto(parser.arg1());
-						break;
-					case C_IF:
-						codeWriter.writeIf(parser.arg1());
-						break;
-					case C_FUNCTION:
-						codeWriter.writeFunction(parser.arg1(), parser.arg2());
-						break;
-					case C_RETURN:
-						codeWriter.writeReturn();
-						break;
-					case C_CALL:
-						codeWriter.writeCall(parser.arg1(), parser.arg2());
-						break;
-					default:
-						break;
-				}
+				codeWriter.write(parser.command());
 			}
 		}
 	}
@@ -0,0 +1,91 @@
+import java.util.Set;
+
+/*
+the options that change the Hack assembly a CodeWriter generates, given to the Translator
+or to the Compiler in pipeline mode, and handed to every CodeWriter with configure
+*/
+public class TranslatorOptions {
+
+	// jump to shared call and return routines instead of expanding them inline (--calls=shared)
+	private boolean            sharedCalls       = false;
+	// jump to a shared routine per comparison operator instead of expanding it inline (--comparisons=shared)
+	private boolean            sharedComparisons = false;
+	// the peephole rules run over the assembly (--peephole for all, --peephole=rule,...)
+	private Set<Peephole.Rule> peepholeRules     = Set.of();
+	// keep the top of the stack in D between commands (--cache-top)
+	private boolean            cacheTop          = false;
+	// translate a push together with the commands after it (--fuse)
+	private boolean            fuse              = false;
+
+	/*
+	take arg if it is one of these options, false if it is not
+	invalid values are reported by throwing an Error
+	*/
+	public boolean parse(String arg) {
+		if (arg.startsWith("--calls=")) {
+			sharedCalls = parseStrategy(arg);
+		} else if (arg.startsWith("--comparisons=")) {
+			sharedComparisons = parseStrategy(arg);
+		} else if (arg.equals("--peephole")) {
+			peepholeRules = Peephole.parse("all");
+		} else if (arg.startsWith("--peephole=")) {
+			peepholeRules = Peephole.parse(arg.substring("--peephole=".length()));
+		} else if (arg.equals("--cache-top")) {
+			cacheTop = true;
+		} else if (arg.equals("--fuse")) {
+			fuse = true;
+		} else {
+			return false;
+		}
+		return true;
+	}
+
+	// the first option that changes the generated code, or null if none does
+	public String changedOption() {
+		if (sharedCalls) {
+			return "--calls=shared";
+		} else if (sharedComparisons) {
+			return "--comparisons=shared";
+		} else if (!peepholeRules.isEmpty()) {
+			return "--peephole";
+		} else if (cacheTop) {
+			return "--cache-top";
+		} else if (fuse) {
+			return "--fuse";
+		}
+		return null;
+	}
+
+	/*
+	the value of an option choosing between the inline (expanded at every use) and the shared
+	(one routine for the whole program) strategy, true for shared
+	*/
+	private static boolean parseStrategy(String option) {
+		String strategy = option.substring(option.indexOf('=') + 1);
+		return switch (strategy) {
+			case "shared" -> true;
+			case "inline" -> false;
+			default -> throw new Error(String.format("invalid strategy %s, expected shared or inline", strategy));
+		};
+	}
+
+	public boolean sharedCalls() {
+		return sharedCalls;
+	}
+
+	public boolean sharedComparisons() {
+		return sharedComparisons;
+	}
+
+	public Set<Peephole.Rule> peepholeRules() {
+		return peepholeRules;
+	}
+
+	public boolean cacheTop() {
+		return cacheTop;
+	}
+
+	public boolean fuse() {
+		return fuse;
+	}
+}
@@ -0,0 +1,59 @@
+/*
+a single VM command, either parsed from a .vm file or produced directly by the Jack compiler
+arg1 is the command itself for C_ARITHMETIC and is not set for C_RETURN
+arg2 is only set for C_PUSH, C_POP, C_FUNCTION and C_CALL
+*/
+public record VMCommand(Command type, String arg1, Integer arg2) {
+
+	public static VMCommand arithmetic(String command) {
+		return new VMCommand(Command.C_ARITHMETIC, command, null);
+	}
+
+	public static VMCommand push(String segment, int index) {
+		return new VMCommand(Command.C_PUSH, segment, index);
+	}
+
+	public static VMCommand pop(String segment, int index) {
+		return new VMCommand(Command.C_POP, segment, index);
+	}
+
+	public static VMCommand label(String label) {
+		return new VMCommand(Command.C_LABEL, label, null);
+	}
+
+	public static VMCommand goTo(String label) {
+		return new VMCommand(Command.C_GOTO, label, null);
+	}
+
+	public static VMCommand ifGoto(String label) {
+		return new VMCommand(Command.C_IF, label, null);
+	}
+
+	public static VMCommand function(String name, int numLocals) {
+		return new VMCommand(Command.C_FUNCTION, name, numLocals);
+	}
+
+	public static VMCommand call(String name, int numArgs) {
+		return new VMCommand(Command.C_CALL, name, numArgs);
+	}
+
+	public static VMCommand returnCommand() {
+		return new VMCommand(Command.C_RETURN, null, null);
+	}
+
+	// the command as a line of a .vm file
+	@Override
+	public String toString() {
+		return switch (type) {
+			case C_ARITHMETIC -> arg1;
+			case C_PUSH -> String.format("push %s %d", arg1, arg2);
+			case C_POP -> String.format("pop %s %d", arg1, arg2);
+			case C_LABEL -> String.format("label %s", arg1);
+			case C_GOTO -> String.format("goto %s", arg1);
+			case C_IF -> String.format("if-goto %s", arg1);
+			case C_FUNCTION -> String.format("function %s %d", arg1, arg2);
+			case C_CALL -> String.format("call %s %d", arg1, arg2);
+			case C_RETURN -> "return";
+		};
+	}
+}